@@ -0,0 +1,143 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumer.Tuple;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offset map encoding and decoding, over the shapes of incomplete offsets seen in practice, at offset ranges from a
+ * thousand to ten million.
+ * <p>
+ * Reports time per operation, and with the GC profiler, bytes allocated per operation ({@code gc.alloc.rate.norm}).
+ * The encode benchmarks also report the size of the result, as the {@code encodedBytes} counter. Built with the {@code
+ * benchmarks} profile ({@code mvn package -Pbenchmarks}), then run with:
+ * <pre>
+ * java -jar parallel-consumer-benchmarks/target/benchmarks.jar OffsetEncodingBenchmark -prof gc
+ * </pre>
+ * Lives in the core package, so it can drive the package private encoders directly.
+ *
+ * @see OffsetSimultaneousEncoder
+ * @see OffsetMapCodecManager
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OffsetEncodingBenchmark {
+
+    public enum Distribution {
+        /**
+         * A few slow records left far behind - one in a thousand offsets incomplete, scattered
+         */
+        SPARSE_STRAGGLERS,
+        /**
+         * Every other offset incomplete - the worst case for run length encoding
+         */
+        ALTERNATING,
+        /**
+         * Most offsets incomplete - e.g. a slow user function with a large backlog - nine in ten offsets incomplete,
+         * scattered
+         */
+        DENSE
+    }
+
+    /**
+     * The size of the encoded result of the last operation - reported as is, not as a rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long encodedBytes;
+    }
+
+    @Param
+    Distribution distribution;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int windowSize;
+
+    private final long baseOffset = 1_000_000L;
+
+    private long nextExpectedOffset;
+
+    private Set<Long> incompletes;
+
+    private byte[] packed;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() throws EncodingNotSupportedException {
+        var random = new Random(windowSize);
+        incompletes = new HashSet<>();
+        // the base offset is always incomplete, or it would have been committed
+        incompletes.add(baseOffset);
+        for (int i = 1; i < windowSize; i++) {
+            boolean incomplete = switch (distribution) {
+                case SPARSE_STRAGGLERS -> random.nextInt(1000) == 0;
+                case ALTERNATING -> i % 2 == 0;
+                case DENSE -> random.nextInt(10) != 0;
+            };
+            if (incomplete) {
+                incompletes.add(baseOffset + i);
+            }
+        }
+        nextExpectedOffset = baseOffset + windowSize;
+        packed = new OffsetSimultaneousEncoder(baseOffset, nextExpectedOffset, incompletes).invoke().packSmallest();
+        text = OffsetSimpleSerialisation.base64(packed);
+    }
+
+    /**
+     * What a commit runs - only the encoder predicted to be smallest
+     */
+    @Benchmark
+    public byte[] encode(EncodedSize size) throws EncodingNotSupportedException {
+        byte[] result = new OffsetSimultaneousEncoder(baseOffset, nextExpectedOffset, incompletes).invoke().packSmallest();
+        size.encodedBytes = result.length;
+        return result;
+    }
+
+    /**
+     * Every encoder - the cost the prediction avoids
+     */
+    @Benchmark
+    public byte[] encodeAllEncoders(EncodedSize size) throws EncodingNotSupportedException {
+        byte[] result = new OffsetSimultaneousEncoder(baseOffset, nextExpectedOffset, incompletes).withAllEncoders().invoke().packSmallest();
+        size.encodedBytes = result.length;
+        return result;
+    }
+
+    /**
+     * Encoding, plus the text packing for the commit metadata
+     */
+    @Benchmark
+    public String encodeToText(EncodedSize size) throws EncodingNotSupportedException {
+        byte[] result = new OffsetSimultaneousEncoder(baseOffset, nextExpectedOffset, incompletes).invoke().packSmallest();
+        String packedText = OffsetSimpleSerialisation.base64(result);
+        size.encodedBytes = packedText.length();
+        return packedText;
+    }
+
+    @Benchmark
+    public Tuple<Long, long[]> decode() {
+        return EncodedOffsetPair.unwrap(packed).getDecodedIncompleteOffsets(baseOffset);
+    }
+
+    /**
+     * What loading a partition's committed offset map runs, on assignment
+     */
+    @Benchmark
+    public Tuple<Long, long[]> decodeFromText() throws OffsetDecodingError {
+        return OffsetMapCodecManager.deserialiseIncompleteOffsetsFromBase64(baseOffset, text);
+    }
+}
@@ -0,0 +1,265 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions.ProcessingOrder;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * The {@link WorkManager} control loop hot paths - {@link WorkManager#registerWork}, {@link WorkManager#maybeGetWork},
+ * {@link WorkManager#success} and {@link WorkManager#findCompletedEligibleOffsetsAndRemove} - driven directly, with a
+ * {@link MockConsumer}, for each {@link ProcessingOrder}, across key cardinalities and in flight windows.
+ * <p>
+ * An operation is a batch of {@link Pipeline#inFlight} records, over {@link Pipeline#PARTITIONS} partitions, with keys
+ * drawn uniformly from {@link Pipeline#keyCardinality} keys. {@link #cycle} takes a batch through every stage, the other
+ * benchmarks measure one stage, with the others done outside of the measurement. The in flight window is also the
+ * {@link ParallelConsumerOptions#getMaxMessagesToQueue() queue size}, but the ordering limits how much of it can
+ * actually be in flight - one record per partition with {@link ProcessingOrder#PARTITION}, one per key with {@link
+ * ProcessingOrder#KEY}.
+ * <p>
+ * Reports throughput, and with the GC profiler, allocation rate and bytes allocated per batch. Built with the {@code
+ * benchmarks} profile ({@code mvn package -Pbenchmarks}), then run with:
+ * <pre>
+ * java -jar parallel-consumer-benchmarks/target/benchmarks.jar WorkManagerBenchmark -prof gc
+ * </pre>
+ *
+ * @see OffsetEncodingBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WorkManagerBenchmark {
+
+    /**
+     * A {@link WorkManager}, fed batches of records, which can be drained back to empty between operations
+     */
+    @State(Scope.Thread)
+    public static class Pipeline {
+
+        static final String TOPIC = "input";
+
+        static final int PARTITIONS = 8;
+
+        @Param
+        ProcessingOrder ordering;
+
+        @Param({"10", "1000", "100000", "10000000"})
+        int keyCardinality;
+
+        @Param({"100", "1000", "10000"})
+        int inFlight;
+
+        WorkManager<Long, String> wm;
+
+        /**
+         * Work taken and not yet succeeded
+         */
+        final List<WorkContainer<Long, String>> inFlightWork = new ArrayList<>();
+
+        private final long[] nextOffsets = new long[PARTITIONS];
+
+        private Random random;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            var options = ParallelConsumerOptions.builder()
+                    .ordering(ordering)
+                    .maxMessagesToQueue(inFlight)
+                    .maxNumberMessagesBeyondBaseCommitOffset(inFlight)
+                    .build();
+            wm = new WorkManager<>(options, new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+            random = new Random(keyCardinality);
+        }
+
+        /**
+         * @return the next batch of records, partitioned by key, as the producer's default partitioner would
+         */
+        ConsumerRecords<Long, String> nextBatch() {
+            Map<TopicPartition, List<ConsumerRecord<Long, String>>> records = new HashMap<>();
+            for (int i = 0; i < inFlight; i++) {
+                long key = random.nextInt(keyCardinality);
+                int partition = Math.floorMod(Long.hashCode(key), PARTITIONS);
+                var record = new ConsumerRecord<>(TOPIC, partition, nextOffsets[partition]++, key, "value");
+                records.computeIfAbsent(new TopicPartition(TOPIC, partition), ignore -> new ArrayList<>()).add(record);
+            }
+            return new ConsumerRecords<>(records);
+        }
+
+        /**
+         * Registers a batch, and has it moved from the inbox into the shards
+         */
+        void queueBatch() {
+            wm.registerWork(nextBatch());
+            wm.maybeGetWork(0);
+        }
+
+        /**
+         * Take and succeed work until none is returned - records blocked behind the in flight work stay queued
+         */
+        void takeAndSucceedAvailable() {
+            List<WorkContainer<Long, String>> work = wm.maybeGetWork();
+            while (!work.isEmpty()) {
+                succeed(work);
+                work = wm.maybeGetWork();
+            }
+        }
+
+        /**
+         * As the processor does, once the user function has returned
+         */
+        void succeed(List<WorkContainer<Long, String>> work) {
+            for (var wc : work) {
+                wc.onUserFunctionSuccess();
+                wm.success(wc);
+            }
+        }
+
+        /**
+         * Succeed everything in flight or queued, and commit it, leaving the work manager empty
+         */
+        void drain() {
+            succeed(inFlightWork);
+            inFlightWork.clear();
+            takeAndSucceedAvailable();
+            if (wm.isRecordsAwaitingProcessing()) {
+                throw new IllegalStateException(msg("{} records left queued after draining", wm.getWorkRemainingCount()));
+            }
+            wm.onOffsetCommitSuccess(wm.findCompletedEligibleOffsetsAndRemove());
+        }
+    }
+
+    /**
+     * A batch of records, ready to register
+     */
+    @State(Scope.Thread)
+    public static class Batch {
+
+        ConsumerRecords<Long, String> records;
+
+        @Setup(Level.Invocation)
+        public void setup(Pipeline pipeline) {
+            records = pipeline.nextBatch();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(Pipeline pipeline) {
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * A batch of records, registered and queued in the shards
+     */
+    @State(Scope.Thread)
+    public static class Queued {
+
+        @Setup(Level.Invocation)
+        public void setup(Pipeline pipeline) {
+            pipeline.queueBatch();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(Pipeline pipeline) {
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * As much of a batch of records as the ordering allows, taken as work
+     */
+    @State(Scope.Thread)
+    public static class InFlight {
+
+        @Setup(Level.Invocation)
+        public void setup(Pipeline pipeline) {
+            pipeline.queueBatch();
+            pipeline.inFlightWork.addAll(pipeline.wm.maybeGetWork());
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(Pipeline pipeline) {
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * A batch of records, processed apart from the first one taken - which holds back the commit of its partition,
+     * so it has an offset map to encode
+     */
+    @State(Scope.Thread)
+    public static class Completed {
+
+        @Setup(Level.Invocation)
+        public void setup(Pipeline pipeline) {
+            pipeline.queueBatch();
+            List<WorkContainer<Long, String>> work = pipeline.wm.maybeGetWork();
+            if (!work.isEmpty()) {
+                pipeline.inFlightWork.add(work.remove(0));
+            }
+            pipeline.succeed(work);
+            pipeline.takeAndSucceedAvailable();
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown(Pipeline pipeline) {
+            pipeline.drain();
+        }
+    }
+
+    /**
+     * A batch through every stage - registered, taken, succeeded and committed
+     */
+    @Benchmark
+    public Map<TopicPartition, OffsetAndMetadata> cycle(Pipeline pipeline) {
+        pipeline.wm.registerWork(pipeline.nextBatch());
+        pipeline.takeAndSucceedAvailable();
+        var offsets = pipeline.wm.findCompletedEligibleOffsetsAndRemove();
+        pipeline.wm.onOffsetCommitSuccess(offsets);
+        return offsets;
+    }
+
+    /**
+     * Registering a batch, through to it being queued in the shards
+     */
+    @Benchmark
+    public List<WorkContainer<Long, String>> registerWork(Pipeline pipeline, Batch batch) {
+        pipeline.wm.registerWork(batch.records);
+        // moves the records from the inbox into the shards, without taking any work
+        return pipeline.wm.maybeGetWork(0);
+    }
+
+    @Benchmark
+    public List<WorkContainer<Long, String>> maybeGetWork(Pipeline pipeline, Queued queued) {
+        List<WorkContainer<Long, String>> work = pipeline.wm.maybeGetWork();
+        pipeline.inFlightWork.addAll(work);
+        return work;
+    }
+
+    @Benchmark
+    public void success(Pipeline pipeline, InFlight inFlight) {
+        pipeline.succeed(pipeline.inFlightWork);
+        pipeline.inFlightWork.clear();
+    }
+
+    @Benchmark
+    public Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsAndRemove(Pipeline pipeline, Completed completed) {
+        var offsets = pipeline.wm.findCompletedEligibleOffsetsAndRemove();
+        pipeline.wm.onOffsetCommitSuccess(offsets);
+        return offsets;
+    }
+}
@@ -0,0 +1,79 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records when each record is polled, and when its offset is committed - a record counts as committed once the
+ * committed offset of its partition has moved past it, not when it's only marked complete in the offset map.
+ */
+class CommitLatencyRecorder {
+
+    /**
+     * When each record of the partition was polled, indexed by offset
+     */
+    private final Map<TopicPartition, long[]> polledAt = new HashMap<>();
+
+    /**
+     * The committed offset of each partition
+     */
+    private final Map<TopicPartition, Long> committedOffsets = new HashMap<>();
+
+    private final long[] latencies;
+
+    @Getter
+    private volatile int committedCount = 0;
+
+    /**
+     * When the last record was committed
+     */
+    @Getter
+    private volatile long lastCommitNanos;
+
+    CommitLatencyRecorder(int records) {
+        this.latencies = new long[records];
+    }
+
+    synchronized void onPolled(ConsumerRecord<?, ?> record, long nanos) {
+        var tp = new TopicPartition(record.topic(), record.partition());
+        long[] times = polledAt.computeIfAbsent(tp, ignore -> new long[1024]);
+        int offset = Math.toIntExact(record.offset());
+        if (offset >= times.length) {
+            times = Arrays.copyOf(times, Math.max(times.length * 2, offset + 1));
+            polledAt.put(tp, times);
+        }
+        times[offset] = nanos;
+    }
+
+    synchronized void onCommitted(Map<TopicPartition, OffsetAndMetadata> offsets, long nanos) {
+        for (var entry : offsets.entrySet()) {
+            TopicPartition tp = entry.getKey();
+            long from = committedOffsets.getOrDefault(tp, 0L);
+            long to = entry.getValue().offset();
+            long[] times = polledAt.get(tp);
+            for (long offset = from; offset < to; offset++) {
+                latencies[committedCount++] = nanos - times[(int) offset];
+            }
+            if (to > from) {
+                committedOffsets.put(tp, to);
+                lastCommitNanos = nanos;
+            }
+        }
+    }
+
+    synchronized long[] getSortedLatencies() {
+        long[] sorted = Arrays.copyOf(latencies, committedCount);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+}
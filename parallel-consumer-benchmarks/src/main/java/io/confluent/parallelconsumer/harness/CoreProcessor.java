@@ -0,0 +1,45 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import io.confluent.parallelconsumer.ParallelEoSStreamProcessor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link ParallelEoSStreamProcessor}, with a user function which blocks its thread for the latency
+ */
+public class CoreProcessor implements ProcessorUnderTest {
+
+    private ParallelEoSStreamProcessor<String, byte[]> processor;
+
+    @Override
+    public String getName() {
+        return ParallelEoSStreamProcessor.class.getSimpleName();
+    }
+
+    @Override
+    public ParallelEoSStreamProcessor<String, byte[]> create(ParallelConsumerOptions options) {
+        processor = new ParallelEoSStreamProcessor<>(options);
+        return processor;
+    }
+
+    @Override
+    public void start(LatencyDistribution latency) {
+        processor.poll(record -> sleep(latency.sampleNanos(ThreadLocalRandom.current())));
+    }
+
+    private static void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            // may return early
+            LockSupport.parkNanos(remaining);
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.InternalRuntimeError;
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode;
+import io.confluent.parallelconsumer.ParallelConsumerOptions.ProcessingOrder;
+import io.confluent.parallelconsumer.ParallelEoSStreamProcessor;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import pl.tlinkowski.unij.api.UniLists;
+
+import java.time.Duration;
+import java.util.List;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * Runs a processor end to end without a broker - records are generated and polled from a mock consumer, and offsets
+ * committed to it (or to a mock producer, for transactional commits) - measuring throughput, and the latency from each
+ * record being polled to its offset being committed.
+ * <p>
+ * Unlike the integration tests, needs no Kafka container, so can run anywhere. But as the clients are mocks, the cost
+ * of the real clients and the network isn't included - it measures the processor itself.
+ * <p>
+ * Runs both {@link CoreProcessor} and {@link VertxProcessor}, configured with system properties - once built with the
+ * {@code benchmarks} profile ({@code mvn package -Pbenchmarks}):
+ * <pre>
+ * java -Drecords=1000000 -DkeySkew=1 -DlatencyMs=5 -Dordering=KEY -cp parallel-consumer-benchmarks/target/benchmarks.jar io.confluent.parallelconsumer.harness.EndToEndHarness
+ * </pre>
+ *
+ * @see HarnessConfig
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class EndToEndHarness {
+
+    public static final String TOPIC = "input";
+
+    /**
+     * Only used when there are no more records - the consumer is topped up as it's polled
+     */
+    private static final Duration LONG_POLL_TIMEOUT = Duration.ofMillis(100);
+
+    private static final Duration PROGRESS_CHECK_INTERVAL = Duration.ofMillis(10);
+
+    private final HarnessConfig config;
+
+    public static void main(String[] args) {
+        var harness = new EndToEndHarness(configFromSystemProperties());
+        List<ProcessorUnderTest> processors = UniLists.of(new CoreProcessor(), new VertxProcessor());
+        for (ProcessorUnderTest processor : processors) {
+            System.out.println(harness.run(processor));
+        }
+    }
+
+    private static HarnessConfig configFromSystemProperties() {
+        var options = ParallelConsumerOptions.builder()
+                .ordering(ProcessingOrder.valueOf(System.getProperty("ordering", ProcessingOrder.KEY.name())))
+                .commitMode(CommitMode.valueOf(System.getProperty("commitMode", CommitMode.CONSUMER_ASYNCHRONOUS.name())))
+                .numberOfThreads(Integer.getInteger("threads", 16))
+                .maxMessagesToQueue(Integer.getInteger("maxMessagesToQueue", 100))
+                .build();
+        return HarnessConfig.builder()
+                .records(Integer.getInteger("records", 100_000))
+                .partitions(Integer.getInteger("partitions", 8))
+                .keys(Integer.getInteger("keys", 10_000))
+                .keySkew(Double.parseDouble(System.getProperty("keySkew", "0")))
+                .minPayloadBytes(Integer.getInteger("minPayloadBytes", 100))
+                .maxPayloadBytes(Integer.getInteger("maxPayloadBytes", 1_000))
+                .latency(LatencyDistribution.exponential(Duration.ofMillis(Long.getLong("latencyMs", 1))))
+                .commitInterval(Duration.ofMillis(Long.getLong("commitIntervalMs", 1_000)))
+                .options(options)
+                .build();
+    }
+
+    /**
+     * Runs until every record is committed, then closes the processor
+     *
+     * @throws InternalRuntimeError if not every record was committed within the timeout
+     */
+    public HarnessResult run(ProcessorUnderTest processorUnderTest) {
+        var recorder = new CommitLatencyRecorder(config.getRecords());
+        var consumer = new HarnessConsumer(new RecordStream(config), recorder, config.getMaxPollRecords());
+        var producer = new HarnessProducer(recorder);
+        ParallelConsumerOptions options = config.getOptions().toBuilder()
+                .consumer(consumer)
+                .producer(producer)
+                .build();
+
+        try {
+            ParallelEoSStreamProcessor<String, byte[]> processor = processorUnderTest.create(options);
+            processor.setLongPollTimeout(LONG_POLL_TIMEOUT);
+            processor.setTimeBetweenCommits(config.getCommitInterval());
+            processor.subscribe(UniLists.of(TOPIC));
+            // the mock consumer doesn't rebalance by itself
+            consumer.subscribeWithRebalanceAndAssignment(UniLists.of(TOPIC), config.getPartitions());
+
+            log.info("Running {} with {} records", processorUnderTest.getName(), config.getRecords());
+            long start = System.nanoTime();
+            processorUnderTest.start(config.getLatency());
+            try {
+                awaitAllCommitted(recorder, processor, start);
+            } finally {
+                processor.close();
+            }
+            return HarnessResult.of(processorUnderTest.getName(), recorder.getLastCommitNanos() - start, recorder.getSortedLatencies());
+        } finally {
+            processorUnderTest.close();
+        }
+    }
+
+    @SneakyThrows
+    private void awaitAllCommitted(CommitLatencyRecorder recorder, ParallelEoSStreamProcessor<?, ?> processor, long start) {
+        long deadline = start + config.getTimeout().toNanos();
+        while (recorder.getCommittedCount() < config.getRecords()) {
+            if (processor.isClosedOrFailed()) {
+                throw new InternalRuntimeError(msg("Processor stopped with {} of {} records committed",
+                        recorder.getCommittedCount(), config.getRecords()));
+            }
+            if (System.nanoTime() > deadline) {
+                throw new InternalRuntimeError(msg("Only {} of {} records committed within {}",
+                        recorder.getCommittedCount(), config.getRecords(), config.getTimeout()));
+            }
+            Thread.sleep(PROGRESS_CHECK_INTERVAL.toMillis());
+        }
+    }
+}
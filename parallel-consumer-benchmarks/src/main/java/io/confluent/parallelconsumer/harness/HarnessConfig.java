@@ -0,0 +1,77 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import lombok.Builder;
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * The records to generate, and how they're processed, for an {@link EndToEndHarness} run
+ */
+@Value
+@Builder(toBuilder = true)
+public class HarnessConfig {
+
+    @Builder.Default
+    int records = 100_000;
+
+    @Builder.Default
+    int partitions = 8;
+
+    /**
+     * The number of distinct keys
+     */
+    @Builder.Default
+    int keys = 10_000;
+
+    /**
+     * The exponent of the Zipf distribution keys are drawn from - 0 for every key being as likely, around 1 for a few
+     * hot keys taking most of the records
+     */
+    @Builder.Default
+    double keySkew = 0;
+
+    @Builder.Default
+    int minPayloadBytes = 100;
+
+    @Builder.Default
+    int maxPayloadBytes = 1_000;
+
+    /**
+     * How long the user function takes for each record
+     */
+    @Builder.Default
+    LatencyDistribution latency = LatencyDistribution.exponential(Duration.ofMillis(1));
+
+    /**
+     * The options to run with - the clients are supplied by the harness
+     */
+    @Builder.Default
+    ParallelConsumerOptions options = ParallelConsumerOptions.builder().build();
+
+    /**
+     * @see io.confluent.parallelconsumer.ParallelEoSStreamProcessor#setTimeBetweenCommits
+     */
+    @Builder.Default
+    Duration commitInterval = Duration.ofSeconds(1);
+
+    /**
+     * The most records returned from each poll
+     */
+    @Builder.Default
+    int maxPollRecords = 500;
+
+    /**
+     * How long to wait for every record to be committed, before failing the run
+     */
+    @Builder.Default
+    Duration timeout = Duration.ofMinutes(5);
+
+    @Builder.Default
+    long seed = 1;
+}
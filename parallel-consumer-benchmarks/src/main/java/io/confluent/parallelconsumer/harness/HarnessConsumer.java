@@ -0,0 +1,68 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.csid.utils.LongPollingMockConsumer;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Stands in for the broker - fed from the {@link RecordStream} as it's polled, a poll's worth at a time, recording
+ * when records are polled and committed
+ */
+class HarnessConsumer extends LongPollingMockConsumer<String, byte[]> {
+
+    private static final ConsumerGroupMetadata GROUP_METADATA = new ConsumerGroupMetadata("harness");
+
+    private final RecordStream stream;
+
+    private final CommitLatencyRecorder recorder;
+
+    private final int maxPollRecords;
+
+    HarnessConsumer(RecordStream stream, CommitLatencyRecorder recorder, int maxPollRecords) {
+        super(OffsetResetStrategy.EARLIEST);
+        this.stream = stream;
+        this.recorder = recorder;
+        this.maxPollRecords = maxPollRecords;
+    }
+
+    @Override
+    public synchronized ConsumerRecords<String, byte[]> poll(Duration timeout) {
+        for (int i = 0; i < maxPollRecords && stream.hasNext(); i++) {
+            addRecord(stream.next());
+        }
+        var records = super.poll(timeout);
+        long now = System.nanoTime();
+        for (var record : records) {
+            recorder.onPolled(record, now);
+        }
+        return records;
+    }
+
+    /**
+     * The mock has none, which transactional commits need
+     */
+    @Override
+    public ConsumerGroupMetadata groupMetadata() {
+        return GROUP_METADATA;
+    }
+
+    /**
+     * Synchronous commits are made through here too
+     */
+    @Override
+    public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+        super.commitAsync(offsets, callback);
+        recorder.onCommitted(offsets, System.nanoTime());
+    }
+}
@@ -0,0 +1,43 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records offsets committed in transactions, once the transaction commits
+ */
+class HarnessProducer extends MockProducer<String, byte[]> {
+
+    private final CommitLatencyRecorder recorder;
+
+    private final Map<TopicPartition, OffsetAndMetadata> offsetsInTransaction = new HashMap<>();
+
+    HarnessProducer(CommitLatencyRecorder recorder) {
+        super(true, new StringSerializer(), new ByteArraySerializer());
+        this.recorder = recorder;
+    }
+
+    @Override
+    public synchronized void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, ConsumerGroupMetadata groupMetadata) {
+        super.sendOffsetsToTransaction(offsets, groupMetadata);
+        offsetsInTransaction.putAll(offsets);
+    }
+
+    @Override
+    public synchronized void commitTransaction() {
+        super.commitTransaction();
+        recorder.onCommitted(offsetsInTransaction, System.nanoTime());
+        offsetsInTransaction.clear();
+    }
+}
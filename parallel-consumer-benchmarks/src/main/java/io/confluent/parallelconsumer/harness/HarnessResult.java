@@ -0,0 +1,66 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Value;
+
+import java.time.Duration;
+
+/**
+ * Throughput, and latency from a record being polled to its offset being committed
+ */
+@Value
+public class HarnessResult {
+
+    String processor;
+
+    int records;
+
+    /**
+     * From the processor starting, to the last record being committed
+     */
+    Duration elapsed;
+
+    Duration p50;
+
+    Duration p99;
+
+    Duration p999;
+
+    Duration max;
+
+    static HarnessResult of(String processor, long elapsedNanos, long[] sortedLatencies) {
+        return new HarnessResult(processor, sortedLatencies.length, Duration.ofNanos(elapsedNanos),
+                percentile(sortedLatencies, 0.5),
+                percentile(sortedLatencies, 0.99),
+                percentile(sortedLatencies, 0.999),
+                Duration.ofNanos(sortedLatencies[sortedLatencies.length - 1]));
+    }
+
+    /**
+     * Nearest rank
+     */
+    private static Duration percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return Duration.ofNanos(sorted[Math.max(rank - 1, 0)]);
+    }
+
+    /**
+     * @return records per second
+     */
+    public double getThroughput() {
+        return records / (elapsed.toNanos() / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %,d records in %.2fs - %,.0f records/s, poll to commit latency p50 %.1fms, p99 %.1fms, p999 %.1fms, max %.1fms",
+                processor, records, elapsed.toNanos() / 1e9, getThroughput(), millis(p50), millis(p99), millis(p999), millis(max));
+    }
+
+    private static double millis(Duration duration) {
+        return duration.toNanos() / 1e6;
+    }
+}
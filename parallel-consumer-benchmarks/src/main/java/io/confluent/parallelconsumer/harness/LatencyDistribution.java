@@ -0,0 +1,55 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import java.time.Duration;
+import java.util.Random;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * How long the user function takes for each record
+ */
+@FunctionalInterface
+public interface LatencyDistribution {
+
+    long sampleNanos(Random random);
+
+    static LatencyDistribution none() {
+        return random -> 0;
+    }
+
+    static LatencyDistribution fixed(Duration latency) {
+        long nanos = latency.toNanos();
+        return random -> nanos;
+    }
+
+    static LatencyDistribution uniform(Duration min, Duration max) {
+        long minNanos = min.toNanos();
+        long range = max.toNanos() - minNanos;
+        if (range < 0) {
+            throw new IllegalArgumentException(msg("Minimum latency {} is more than the maximum {}", min, max));
+        }
+        return random -> minNanos + (long) (random.nextDouble() * range);
+    }
+
+    /**
+     * Mostly short, with a long tail - e.g. a remote call
+     */
+    static LatencyDistribution exponential(Duration mean) {
+        long meanNanos = mean.toNanos();
+        return random -> (long) (-meanNanos * Math.log(1 - random.nextDouble()));
+    }
+
+    /**
+     * A few records take much longer than the rest - e.g. timeouts and retries, holding up the offsets behind them
+     *
+     * @param probability the chance of any record being a straggler
+     */
+    static LatencyDistribution withStragglers(LatencyDistribution base, double probability, Duration stragglerLatency) {
+        long stragglerNanos = stragglerLatency.toNanos();
+        return random -> random.nextDouble() < probability ? stragglerNanos : base.sampleNanos(random);
+    }
+}
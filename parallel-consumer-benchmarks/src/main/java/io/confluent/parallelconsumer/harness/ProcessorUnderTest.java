@@ -0,0 +1,34 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import io.confluent.parallelconsumer.ParallelEoSStreamProcessor;
+
+/**
+ * A processor for the {@link EndToEndHarness} to run, with a user function taking the configured latency. Used for one
+ * run only.
+ */
+public interface ProcessorUnderTest extends AutoCloseable {
+
+    String getName();
+
+    /**
+     * @param options with the harness's clients
+     */
+    ParallelEoSStreamProcessor<String, byte[]> create(ParallelConsumerOptions options);
+
+    /**
+     * Start processing, once subscribed and assigned
+     */
+    void start(LatencyDistribution latency);
+
+    /**
+     * Release anything used by the user function, after the processor has been closed
+     */
+    @Override
+    default void close() {
+    }
+}
@@ -0,0 +1,76 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.utils.Utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates the records for a run, as they're needed, so the whole stream is never held in memory. Keys are drawn from
+ * a Zipf distribution and partitioned as the producer's default partitioner would, payload sizes are uniform.
+ */
+class RecordStream {
+
+    private final HarnessConfig config;
+
+    private final Random random;
+
+    /**
+     * Cumulative probabilities of each key, or null if every key is as likely
+     */
+    private final double[] keyDistribution;
+
+    private final long[] nextOffsets;
+
+    private int generated = 0;
+
+    RecordStream(HarnessConfig config) {
+        this.config = config;
+        this.random = new Random(config.getSeed());
+        this.keyDistribution = config.getKeySkew() == 0 ? null : zipf(config.getKeys(), config.getKeySkew());
+        this.nextOffsets = new long[config.getPartitions()];
+    }
+
+    private static double[] zipf(int keys, double exponent) {
+        double[] cumulative = new double[keys];
+        double total = 0;
+        for (int rank = 0; rank < keys; rank++) {
+            total += 1 / Math.pow(rank + 1, exponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < keys; rank++) {
+            cumulative[rank] /= total;
+        }
+        return cumulative;
+    }
+
+    boolean hasNext() {
+        return generated < config.getRecords();
+    }
+
+    ConsumerRecord<String, byte[]> next() {
+        generated++;
+        String key = "key-" + nextKey();
+        int partition = Utils.toPositive(Utils.murmur2(key.getBytes(UTF_8))) % config.getPartitions();
+        int payloadRange = config.getMaxPayloadBytes() - config.getMinPayloadBytes();
+        byte[] payload = new byte[config.getMinPayloadBytes() + (payloadRange == 0 ? 0 : random.nextInt(payloadRange + 1))];
+        random.nextBytes(payload);
+        return new ConsumerRecord<>(EndToEndHarness.TOPIC, partition, nextOffsets[partition]++, key, payload);
+    }
+
+    private int nextKey() {
+        if (keyDistribution == null) {
+            return random.nextInt(config.getKeys());
+        }
+        int search = Arrays.binarySearch(keyDistribution, random.nextDouble());
+        int rank = search >= 0 ? search : -(search + 1);
+        return Math.min(rank, keyDistribution.length - 1);
+    }
+}
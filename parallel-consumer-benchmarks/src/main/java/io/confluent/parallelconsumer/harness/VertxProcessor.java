@@ -0,0 +1,87 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import io.confluent.parallelconsumer.ParallelEoSStreamProcessor;
+import io.confluent.parallelconsumer.vertx.VertxParallelEoSStreamProcessor;
+import io.confluent.parallelconsumer.vertx.VertxParallelEoSStreamProcessor.RequestInfo;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import lombok.SneakyThrows;
+import pl.tlinkowski.unij.api.UniMaps;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VertxParallelEoSStreamProcessor}, making requests to a local Vert.x HTTP server, which delays each response
+ * by the latency - so the user function is non blocking, as it would be in use. Vert.x timers only have millisecond
+ * resolution, so latencies are rounded to the millisecond.
+ */
+public class VertxProcessor implements ProcessorUnderTest {
+
+    private final Vertx vertx = Vertx.vertx();
+
+    private VertxParallelEoSStreamProcessor<String, byte[]> processor;
+
+    private HttpServer server;
+
+    @Override
+    public String getName() {
+        return VertxParallelEoSStreamProcessor.class.getSimpleName();
+    }
+
+    @Override
+    public ParallelEoSStreamProcessor<String, byte[]> create(ParallelConsumerOptions options) {
+        // the default pool of five connections would limit the requests in flight
+        var clientOptions = new WebClientOptions();
+        clientOptions.setMaxPoolSize(options.getMaxMessagesToQueue());
+        processor = new VertxParallelEoSStreamProcessor<>(vertx, WebClient.create(vertx, clientOptions), options);
+        return processor;
+    }
+
+    @Override
+    public void start(LatencyDistribution latency) {
+        server = startServer(latency);
+        var requestInfo = new RequestInfo("localhost", server.actualPort(), "/", UniMaps.of());
+        processor.vertxHttpReqInfo(record -> requestInfo, onSend -> {
+        }, onComplete -> {
+        });
+    }
+
+    @SneakyThrows
+    private HttpServer startServer(LatencyDistribution latency) {
+        CompletableFuture<HttpServer> started = new CompletableFuture<>();
+        vertx.createHttpServer()
+                .requestHandler(request -> {
+                    long delayMs = Math.round(latency.sampleNanos(ThreadLocalRandom.current()) / 1e6);
+                    if (delayMs < 1) {
+                        request.response().end();
+                    } else {
+                        vertx.setTimer(delayMs, timer -> request.response().end());
+                    }
+                })
+                .listen(0, result -> {
+                    if (result.succeeded()) {
+                        started.complete(result.result());
+                    } else {
+                        started.completeExceptionally(result.cause());
+                    }
+                });
+        return started.get(30, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.close();
+        }
+        vertx.close();
+    }
+}
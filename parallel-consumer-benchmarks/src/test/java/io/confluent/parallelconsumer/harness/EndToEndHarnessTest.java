@@ -0,0 +1,79 @@
+package io.confluent.parallelconsumer.harness;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumerOptions;
+import io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode;
+import io.confluent.parallelconsumer.ParallelConsumerOptions.ProcessingOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Short runs, checking every record is accounted for - the harness itself is run with {@link EndToEndHarness#main}
+ */
+@Slf4j
+class EndToEndHarnessTest {
+
+    static final int RECORDS = 5_000;
+
+    HarnessConfig config = HarnessConfig.builder()
+            .records(RECORDS)
+            .keys(500)
+            .keySkew(1)
+            .latency(LatencyDistribution.withStragglers(LatencyDistribution.uniform(Duration.ZERO, Duration.ofMillis(1)), 0.001, Duration.ofMillis(50)))
+            .commitInterval(Duration.ofMillis(100))
+            .timeout(Duration.ofMinutes(1))
+            .build();
+
+    @ParameterizedTest
+    @EnumSource(ProcessingOrder.class)
+    void coreProcessor(ProcessingOrder ordering) {
+        var harness = new EndToEndHarness(config.toBuilder()
+                .options(ParallelConsumerOptions.builder().ordering(ordering).build())
+                .build());
+
+        HarnessResult result = harness.run(new CoreProcessor());
+
+        log.info("{}", result);
+        assertResult(result);
+    }
+
+    @Test
+    void transactionalCommits() {
+        var harness = new EndToEndHarness(config.toBuilder()
+                .options(ParallelConsumerOptions.builder().commitMode(CommitMode.TRANSACTIONAL_PRODUCER).build())
+                .build());
+
+        HarnessResult result = harness.run(new CoreProcessor());
+
+        log.info("{}", result);
+        assertResult(result);
+    }
+
+    @Test
+    void vertxProcessor() {
+        var harness = new EndToEndHarness(config);
+
+        HarnessResult result = harness.run(new VertxProcessor());
+
+        log.info("{}", result);
+        assertResult(result);
+    }
+
+    private void assertResult(HarnessResult result) {
+        assertThat(result.getRecords()).isEqualTo(RECORDS);
+        assertThat(result.getThroughput()).isPositive();
+        assertThat(result.getP50()).isLessThanOrEqualTo(result.getP99());
+        assertThat(result.getP99()).isLessThanOrEqualTo(result.getP999());
+        assertThat(result.getP999()).isLessThanOrEqualTo(result.getMax());
+        assertThat(result.getMax()).isLessThanOrEqualTo(result.getElapsed());
+    }
+}
@@ -7,6 +7,8 @@ import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 
 import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -20,28 +22,69 @@ public abstract class AbstractOffsetCommitter<K, V> implements OffsetCommitter {
      */
     @Override
     public void retrieveOffsetsAndCommit() {
+        retrieveOffsetsAndCommit(getPartitionsToCommit());
+    }
+
+    /**
+     * Get offsets from {@link WorkManager} that are ready to commit, only for the partitions matching the filter
+     */
+    protected void retrieveOffsetsAndCommit(Predicate<TopicPartition> partitionsToCommit) {
+        retrieveOffsetsAndCommit(partitionsToCommit, consumerMgr::groupMetadata);
+    }
+
+    /**
+     * @param groupMetadataSupplier supplies the group metadata to commit with, for when the consumer can't be accessed from
+     *                              the committing thread
+     */
+    protected void retrieveOffsetsAndCommit(Predicate<TopicPartition> partitionsToCommit, Supplier<ConsumerGroupMetadata> groupMetadataSupplier) {
         log.debug("Commit starting - find completed work to commit offsets");
         // todo shouldn't be removed until commit succeeds (there's no harm in committing the same offset twice)
         preAcquireWork();
         try {
-            Map<TopicPartition, OffsetAndMetadata> offsetsToSend = wm.findCompletedEligibleOffsetsAndRemove();
+            boolean acknowledgedLater = isAcknowledgedAsynchronously();
+            Map<TopicPartition, OffsetAndMetadata> offsetsToSend = acknowledgedLater
+                    ? wm.findCompletedEligibleOffsetsToCommit(partitionsToCommit)
+                    : wm.findCompletedEligibleOffsetsAndRemove(partitionsToCommit);
             if (offsetsToSend.isEmpty()) {
                 log.trace("No offsets ready");
             } else {
                 log.debug("Will commit offsets for {} partition(s): {}", offsetsToSend.size(), offsetsToSend);
-                ConsumerGroupMetadata groupMetadata = consumerMgr.groupMetadata();
+                ConsumerGroupMetadata groupMetadata = groupMetadataSupplier.get();
 
                 log.debug("Begin commit");
-                commitOffsets(offsetsToSend, groupMetadata);
+                try {
+                    commitOffsets(offsetsToSend, groupMetadata);
+                } catch (RuntimeException e) {
+                    wm.onOffsetCommitFailure(offsetsToSend);
+                    throw e;
+                }
 
-                log.debug("On commit success");
-                onOffsetCommitSuccess(offsetsToSend);
+                if (!acknowledgedLater) {
+                    log.debug("On commit success");
+                    onOffsetCommitSuccess(offsetsToSend);
+                }
             }
         } finally {
             postCommit();
         }
     }
 
+    /**
+     * @return filter for the partitions this committer is responsible for - by default, all of them
+     */
+    protected Predicate<TopicPartition> getPartitionsToCommit() {
+        return tp -> true;
+    }
+
+    /**
+     * @return true if commits are acknowledged asynchronously, in which case completed work is left in place until the
+     *         implementation acknowledges the commit
+     * @see WorkManager#onOffsetCommitAcknowledged
+     */
+    protected boolean isAcknowledgedAsynchronously() {
+        return false;
+    }
+
     protected void postCommit() {
         // default noop
     }
@@ -113,6 +113,16 @@ class BitsetEncoder extends OffsetEncoder {
         bitSet.set(index);
     }
 
+    @Override
+    void encodeIncompleteOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        // noop - bitset defaults to 0's (`unset`)
+    }
+
+    @Override
+    void encodeCompletedOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        bitSet.set(fromRangeIndex, toRangeIndex);
+    }
+
     @Override
     public byte[] serialise() {
         final byte[] bitSetArray = this.bitSet.toByteArray();
@@ -13,6 +13,7 @@ import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.common.TopicPartition;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -20,7 +21,6 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
-import static io.confluent.csid.utils.BackportUtils.toSeconds;
 import static io.confluent.parallelconsumer.ParallelEoSStreamProcessor.State.closed;
 import static io.confluent.parallelconsumer.ParallelEoSStreamProcessor.State.running;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -54,6 +54,22 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
     @Getter
     private static Duration longPollTimeout = Duration.ofMillis(2000);
 
+    /**
+     * The starting poll timeout while subscriptions are paused.
+     * <p>
+     * While paused, no records will be returned, and we only poll to keep our membership alive. Starting with a short
+     * timeout, and backing off exponentially up to the {@link #longPollTimeout}, means that shortly after being paused
+     * (when demand is most likely to return) we notice quickly that we should resume, without needing to be woken up.
+     *
+     * @see #getPollTimeout()
+     */
+    static final Duration MIN_PAUSED_POLL_TIMEOUT = Duration.ofMillis(10);
+
+    /**
+     * The current poll timeout while paused, reset each time we pause or resume
+     */
+    private Duration pausedPollTimeout = MIN_PAUSED_POLL_TIMEOUT;
+
     private final WorkManager<K, V> wm;
 
     public BrokerPollSystem(ConsumerManager<K, V> consumerMgr, WorkManager<K, V> wm, ParallelEoSStreamProcessor<K, V> pc, final ParallelConsumerOptions options) {
@@ -163,12 +179,32 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
         managePauseOfSubscription();
         log.debug("Subscriptions are paused: {}", paused);
 
-        Duration thisLongPollTimeout = (state == ParallelEoSStreamProcessor.State.running) ? BrokerPollSystem.longPollTimeout : Duration.ofMillis(1); // Can't use Duration.ZERO - this causes Object#wait to wait forever
+        Duration thisLongPollTimeout = getPollTimeout();
 
-        log.debug("Long polling broker with timeout {} seconds, might appear to sleep here if subs are paused, or no data available on broker.", toSeconds(thisLongPollTimeout)); // java 8
+        log.debug("Long polling broker with timeout {}, might appear to sleep here if subs are paused, or no data available on broker.", thisLongPollTimeout);
         return consumerManager.poll(thisLongPollTimeout);
     }
 
+    /**
+     * When not paused, poll for the full {@link #longPollTimeout} - as soon as records arrive the poll will return, so
+     * a long timeout doesn't add any latency.
+     * <p>
+     * When paused, nothing will be returned, so back off exponentially from {@link #MIN_PAUSED_POLL_TIMEOUT}, checking
+     * each time if demand has returned.
+     */
+    private Duration getPollTimeout() {
+        if (state != ParallelEoSStreamProcessor.State.running) {
+            return Duration.ofMillis(1); // Can't use Duration.ZERO - this causes Object#wait to wait forever
+        } else if (paused) {
+            Duration timeout = pausedPollTimeout;
+            Duration doubled = pausedPollTimeout.multipliedBy(2);
+            pausedPollTimeout = doubled.compareTo(longPollTimeout) < 0 ? doubled : longPollTimeout;
+            return timeout;
+        } else {
+            return longPollTimeout;
+        }
+    }
+
     /**
      * Will begin the shutdown process, eventually closing itself once drained
      */
@@ -187,6 +223,7 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
             log.trace("Already paused");
         } else {
             paused = true;
+            pausedPollTimeout = MIN_PAUSED_POLL_TIMEOUT;
             log.debug("Pausing subs");
             Set<TopicPartition> assignment = consumerManager.assignment();
             consumerManager.pause(assignment);
@@ -242,12 +279,11 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
     private void resumeIfPaused() {
         // idempotent
         if (paused) {
-            log.debug("Resuming consumer, waking up");
+            log.debug("Resuming consumer");
             Set<TopicPartition> pausedTopics = consumerManager.paused();
             consumerManager.resume(pausedTopics);
-            // trigger consumer to perform a new poll without the assignments paused, otherwise it will continue to long poll on nothing
-            consumerManager.wakeup();
             paused = false;
+            pausedPollTimeout = MIN_PAUSED_POLL_TIMEOUT;
         }
     }
 
@@ -271,6 +307,19 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
         committer.commit();
     }
 
+    /**
+     * Commit only the given partitions - used when they're being revoked.
+     *
+     * @see ConsumerOffsetCommitter#commitPartitions
+     */
+    void commitPartitions(Collection<TopicPartition> partitions) {
+        ConsumerOffsetCommitter<K, V> committer = this.committer.orElseThrow(() -> {
+            // shouldn't be here
+            throw new IllegalStateException("No committer configured");
+        });
+        committer.commitPartitions(partitions);
+    }
+
     /**
      * Will silently skip if not configured with a committer
      */
@@ -284,4 +333,17 @@ public class BrokerPollSystem<K, V> implements OffsetCommitter {
     public void wakeup() {
         consumerManager.wakeup();
     }
+
+    /**
+     * Only wake up the consumer if it's paused, and now wants to resume - a running consumer will return from its poll
+     * as soon as records arrive anyway, so waking it up only risks erroneous wakeups of other operations, like commits.
+     *
+     * @see ConsumerManager#commitSync
+     */
+    public void wakeupIfPausedAndShouldResume() {
+        if (paused && state == running && !shouldThrottle()) {
+            log.debug("Paused, but demand has returned, waking up consumer to resume");
+            consumerManager.wakeup();
+        }
+    }
 }
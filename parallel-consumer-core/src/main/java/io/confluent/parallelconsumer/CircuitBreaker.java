@@ -0,0 +1,205 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Failure rate driven circuit breaker, protecting a downstream system which the user function depends on.
+ * <p>
+ * While {@link State#CLOSED}, the results of the user function are recorded in a sliding window of the most recent
+ * calls. If the failure rate in the window crosses the threshold, the breaker opens.
+ * <p>
+ * While {@link State#OPEN}, no work is dispatched and broker polling is paused (see {@link
+ * WorkManager#shouldThrottle()}). This prevents mass retries of work which is certain to fail, and the buffering of
+ * records which can't be processed anyway.
+ * <p>
+ * Once the open duration has passed, the breaker moves to {@link State#HALF_OPEN}, where polling resumes but only a
+ * limited number of probes are dispatched. Once every dispatched probe has succeeded the breaker closes again, if any
+ * of them fail it reopens. Results of work dispatched before half opening aren't probes, and are ignored.
+ * <p>
+ * Not thread safe - only used from the control thread, apart from {@link #getState()} which is also read by the broker
+ * poller thread.
+ *
+ * @see ParallelConsumerOptions#getCircuitBreakerFailureRateThreshold()
+ */
+@Slf4j
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    @Getter
+    private volatile State state = State.CLOSED;
+
+    private final int failureRateThreshold;
+
+    private final int minimumCalls;
+
+    private final Duration openDuration;
+
+    private final int halfOpenProbes;
+
+    /**
+     * Ring buffer of the most recent results, true for failure
+     */
+    private final boolean[] window;
+
+    private int windowPosition = 0;
+
+    private int windowCount = 0;
+
+    private int windowFailures = 0;
+
+    private Instant openedAt;
+
+    /**
+     * The probes dispatched while half open, which haven't yet had a result
+     */
+    private final Set<Object> probesInFlight = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private int probesDispatched = 0;
+
+    private int probesSucceeded = 0;
+
+    CircuitBreaker(ParallelConsumerOptions<?, ?> options) {
+        this.failureRateThreshold = options.getCircuitBreakerFailureRateThreshold();
+        this.minimumCalls = options.getCircuitBreakerMinimumCalls();
+        this.openDuration = options.getCircuitBreakerOpenDuration();
+        this.halfOpenProbes = options.getCircuitBreakerHalfOpenProbes();
+        this.window = new boolean[Math.max(1, options.getCircuitBreakerWindowSize())];
+    }
+
+    boolean isEnabled() {
+        return failureRateThreshold > 0;
+    }
+
+    boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    boolean isOpen() {
+        return state == State.OPEN;
+    }
+
+    /**
+     * @return the number of records which may be dispatched right now
+     */
+    int getDispatchAllowance(Instant now) {
+        switch (state) {
+            case OPEN -> {
+                if (now.isBefore(openedAt.plus(openDuration))) {
+                    return 0;
+                }
+                log.info("Circuit breaker open duration ({}) has passed, half opening to send {} probe(s)", openDuration, halfOpenProbes);
+                probesInFlight.clear();
+                probesDispatched = 0;
+                probesSucceeded = 0;
+                state = State.HALF_OPEN;
+                return halfOpenProbes;
+            }
+            case HALF_OPEN -> {
+                return halfOpenProbes - probesDispatched;
+            }
+            default -> {
+                return Integer.MAX_VALUE;
+            }
+        }
+    }
+
+    void onDispatched(Collection<?> work) {
+        if (state == State.HALF_OPEN) {
+            probesDispatched += work.size();
+            probesInFlight.addAll(work);
+        }
+    }
+
+    /**
+     * @param work the work the result is for, as passed to {@link #onDispatched}
+     */
+    void onResult(Object work, boolean succeeded, Instant now) {
+        if (!isEnabled()) {
+            return;
+        }
+        switch (state) {
+            case CLOSED -> {
+                record(!succeeded);
+                if (windowCount >= minimumCalls && getFailureRate() >= failureRateThreshold) {
+                    log.warn("Failure rate {}% over the last {} results has reached the threshold of {}%, opening circuit breaker for {}",
+                            getFailureRate(), windowCount, failureRateThreshold, openDuration);
+                    open(now);
+                }
+            }
+            case HALF_OPEN -> {
+                if (!probesInFlight.remove(work)) {
+                    // dispatched before half opening - not a probe
+                    return;
+                }
+                if (succeeded) {
+                    probesSucceeded++;
+                    if (probesSucceeded >= probesDispatched && probesDispatched > 0) {
+                        log.info("All {} circuit breaker probes succeeded, closing", probesDispatched);
+                        close();
+                    }
+                } else {
+                    log.warn("Circuit breaker probe failed, reopening for {}", openDuration);
+                    open(now);
+                }
+            }
+            case OPEN -> {
+                // results from work dispatched before opening - ignore
+            }
+        }
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            // evict oldest
+            if (window[windowPosition]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPosition] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPosition = (windowPosition + 1) % window.length;
+    }
+
+    /**
+     * @return failure percentage of the results in the window
+     */
+    int getFailureRate() {
+        if (windowCount == 0) {
+            return 0;
+        }
+        return windowFailures * 100 / windowCount;
+    }
+
+    private void open(Instant now) {
+        probesInFlight.clear();
+        openedAt = now;
+        state = State.OPEN;
+    }
+
+    private void close() {
+        probesInFlight.clear();
+        state = State.CLOSED;
+        windowPosition = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+}
@@ -5,16 +5,22 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RetriableException;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
+import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.CONSUMER_ASYNCHRONOUS;
 import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.CONSUMER_SYNC;
 import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.TRANSACTIONAL_PRODUCER;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -56,9 +62,25 @@ public class ConsumerOffsetCommitter<K, V> extends AbstractOffsetCommitter<K, V>
 
     private Optional<Thread> owningThread = Optional.empty();
 
+    /**
+     * When running a pool of consumers, each consumer can only commit the partitions assigned to it
+     *
+     * @see ParallelConsumerOptions#getAdditionalConsumers()
+     */
+    private final boolean pooled;
+
+    /**
+     * If present, offsets are committed to this instead of through the consumer
+     *
+     * @see ParallelConsumerOptions#getOffsetStore()
+     */
+    private final Optional<OffsetStore> offsetStore;
+
     public ConsumerOffsetCommitter(final ConsumerManager<K, V> newConsumer, final WorkManager<K, V> newWorkManager, final ParallelConsumerOptions options) {
         super(newConsumer, newWorkManager);
         commitMode = options.getCommitMode();
+        pooled = options.isUsingConsumerPool();
+        offsetStore = options.getOffsetStore();
         if (commitMode.equals(TRANSACTIONAL_PRODUCER)) {
             throw new IllegalArgumentException("Cannot use " + commitMode + " when using " + this.getClass().getSimpleName());
         }
@@ -67,6 +89,18 @@ public class ConsumerOffsetCommitter<K, V> extends AbstractOffsetCommitter<K, V>
     // todo abstraction leak - find another way
     private boolean direct = false;
 
+    /**
+     * Sequence number of the last asynchronous commit sent
+     */
+    private final AtomicLong asyncCommitSequence = new AtomicLong(0);
+
+    /**
+     * Sequence number of the last asynchronous commit acknowledged - only accessed from the owning thread
+     */
+    private long lastAcknowledgedAsyncCommit = 0;
+
+    private final AtomicInteger asyncCommitsInFlight = new AtomicInteger(0);
+
     /**
      * Might block if using {@link CommitMode#CONSUMER_SYNC}
      *
@@ -77,7 +111,11 @@ public class ConsumerOffsetCommitter<K, V> extends AbstractOffsetCommitter<K, V>
             // if owning thread is asking, then perform the commit directly (this is the thread that controls the consumer)
             // this can happen when the system is closing, using Consumer commit mode, and partitions are revoked and we want to commit
             direct = true;
-            retrieveOffsetsAndCommit();
+            try {
+                retrieveOffsetsAndCommit();
+            } finally {
+                direct = false;
+            }
         } else if (isSync()) {
             log.debug("Sync commit");
             commitAndWaitForCondition();
@@ -90,26 +128,51 @@ public class ConsumerOffsetCommitter<K, V> extends AbstractOffsetCommitter<K, V>
         }
     }
 
+    /**
+     * Commit only the given partitions, upon them being revoked - so that with incremental cooperative rebalancing, the
+     * retained partitions aren't needlessly committed.
+     * <p>
+     * Only commits directly if called from the owning thread (i.e. from within a rebalance callback), otherwise falls
+     * back to a normal {@link #commit()}.
+     */
+    void commitPartitions(Collection<TopicPartition> partitions) {
+        if (isOwner()) {
+            direct = true;
+            try {
+                retrieveOffsetsAndCommit(getPartitionsToCommit().and(partitions::contains));
+            } finally {
+                direct = false;
+            }
+        } else {
+            commit();
+        }
+    }
+
     @Override
     protected void commitOffsets(final Map<TopicPartition, OffsetAndMetadata> offsetsToSend, final ConsumerGroupMetadata groupMetadata) {
         if (offsetsToSend.isEmpty()) {
             log.trace("Nothing to commit");
             return;
         }
+        if (offsetStore.isPresent()) {
+            log.debug("Committing offsets to offset store");
+            try {
+                offsetStore.get().commit(offsetsToSend);
+            } catch (Exception e) {
+                throw new InternalRuntimeError("Error committing offsets to the offset store", e);
+            }
+            return;
+        }
         switch (commitMode) {
             case CONSUMER_SYNC -> {
                 log.debug("Committing offsets Sync");
                 consumerMgr.commitSync(offsetsToSend);
             }
             case CONSUMER_ASYNCHRONOUS -> {
-                //
-                log.debug("Committing offsets Async");
-                consumerMgr.commitAsync(offsetsToSend, (offsets, exception) -> {
-                    if (exception != null) {
-                        log.error("Error committing offsets", exception);
-                        // todo keep work in limbo until async response is received?
-                    }
-                });
+                long sequence = asyncCommitSequence.incrementAndGet();
+                log.debug("Committing offsets Async (sequence {})", sequence);
+                asyncCommitsInFlight.incrementAndGet();
+                consumerMgr.commitAsync(offsetsToSend, (offsets, exception) -> onAsyncCommitResult(sequence, offsetsToSend, exception));
             }
             default -> {
                 throw new IllegalArgumentException("Cannot use " + commitMode + " when using " + this.getClass().getSimpleName());
@@ -117,6 +180,54 @@ public class ConsumerOffsetCommitter<K, V> extends AbstractOffsetCommitter<K, V>
         }
     }
 
+    /**
+     * Completed work is only removed once the commit is acknowledged. Callbacks are run by the consumer, on the owning
+     * thread, in the order the commits were sent.
+     */
+    private void onAsyncCommitResult(long sequence, Map<TopicPartition, OffsetAndMetadata> offsetsSent, Exception exception) {
+        asyncCommitsInFlight.decrementAndGet();
+        if (exception == null) {
+            log.debug("Async commit {} acknowledged", sequence);
+            lastAcknowledgedAsyncCommit = Math.max(lastAcknowledgedAsyncCommit, sequence);
+            wm.onOffsetCommitAcknowledged(offsetsSent);
+        } else if (sequence < lastAcknowledgedAsyncCommit) {
+            log.debug("Async commit {} failed, but has been superseded by commit {}", sequence, lastAcknowledgedAsyncCommit, exception);
+        } else if (exception instanceof RetriableException) {
+            log.warn("Async commit {} failed, will retry: {}", sequence, exception.getMessage());
+            wm.onOffsetCommitFailure(offsetsSent);
+            commitRequested.set(true);
+        } else {
+            log.error("Error committing offsets (sequence {}), will try again on next commit", sequence, exception);
+            wm.onOffsetCommitFailure(offsetsSent);
+        }
+    }
+
+    @Override
+    protected boolean isAcknowledgedAsynchronously() {
+        // commits to an offset store are complete once they return, even when they weren't waited for
+        return commitMode.equals(CONSUMER_ASYNCHRONOUS) && !offsetStore.isPresent();
+    }
+
+    /**
+     * @return the number of asynchronous commits sent, but not yet acknowledged
+     */
+    int getAsyncCommitsInFlight() {
+        return asyncCommitsInFlight.get();
+    }
+
+    /**
+     * Only ever called from the owning thread, so it's safe to access the consumer's assignment
+     */
+    @Override
+    protected Predicate<TopicPartition> getPartitionsToCommit() {
+        if (pooled) {
+            Set<TopicPartition> assignment = consumerMgr.assignment();
+            return assignment::contains;
+        } else {
+            return super.getPartitionsToCommit();
+        }
+    }
+
     /**
      * @see #commit()
      */
@@ -0,0 +1,81 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.util.Optional;
+
+import static io.confluent.parallelconsumer.OffsetDeltaVarInt.writeVarInt;
+import static io.confluent.parallelconsumer.OffsetEncoding.DeltaVarInt;
+import static io.confluent.parallelconsumer.OffsetEncoding.DeltaVarIntCompressed;
+
+/**
+ * Encodes only the incomplete offsets, each as a varint of the gap from the previous one.
+ * <p>
+ * Size is proportional to the number of incomplete offsets, rather than the length of the range - so highly efficient
+ * when a few incomplete offsets sit far behind a large block of completed ones, e.g. a few slow records holding back
+ * the committed offset of a busy partition.
+ * <p>
+ * Inefficient when most of the range is incomplete ({@link RunLengthEncoder} is much better) or the completion status
+ * is random ({@link BitsetEncoder} is better).
+ *
+ * @see OffsetDeltaVarInt
+ */
+class DeltaVarIntEncoder extends OffsetEncoder {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private int previousIncompleteIndex = -1;
+
+    private Optional<byte[]> encodedBytes = Optional.empty();
+
+    public DeltaVarIntEncoder(int length, OffsetSimultaneousEncoder offsetSimultaneousEncoder) {
+        super(offsetSimultaneousEncoder);
+        writeVarInt(out, length);
+    }
+
+    @Override
+    protected OffsetEncoding getEncodingType() {
+        return DeltaVarInt;
+    }
+
+    @Override
+    protected OffsetEncoding getEncodingTypeCompressed() {
+        return DeltaVarIntCompressed;
+    }
+
+    @Override
+    public void encodeIncompleteOffset(final int rangeIndex) {
+        writeVarInt(out, rangeIndex - previousIncompleteIndex - 1);
+        previousIncompleteIndex = rangeIndex;
+    }
+
+    @Override
+    public void encodeCompletedOffset(final int rangeIndex) {
+        // noop - completed offsets are the gaps between incompletes
+    }
+
+    @Override
+    void encodeCompletedOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        // noop - completed offsets are the gaps between incompletes
+    }
+
+    @Override
+    public byte[] serialise() {
+        final byte[] array = out.toByteArray();
+        this.encodedBytes = Optional.of(array);
+        return array;
+    }
+
+    @Override
+    public int getEncodedSize() {
+        return this.encodedBytes.get().length;
+    }
+
+    @Override
+    protected byte[] getEncodedBytes() {
+        return this.encodedBytes.get();
+    }
+}
@@ -0,0 +1,58 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writing files so that they survive a crash - each is written to a temporary file, forced to disk, then atomically
+ * moved into place. The move itself is only durable once the directory has been forced too, see {@link
+ * #forceDirectory}.
+ *
+ * @see FileOffsetStore
+ * @see FileOffsetMapOverflowStore
+ */
+@Slf4j
+@UtilityClass
+class DurableFiles {
+
+    /**
+     * Atomically replaces (or creates) the file, leaving either its previous or its new contents
+     */
+    static void write(Path directory, String fileName, byte[] contents) throws IOException {
+        Path temp = Files.createTempFile(directory, fileName, ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(fileName), ATOMIC_MOVE);
+    }
+
+    /**
+     * Makes the moves into the directory durable - not every platform can open a directory (e.g. Windows), where
+     * there's nothing more that can be done
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.trace("Can't force directory {} to disk on this platform", directory, e);
+        }
+    }
+}
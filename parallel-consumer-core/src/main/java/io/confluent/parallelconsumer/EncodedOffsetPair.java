@@ -10,10 +10,13 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
 import java.nio.ByteBuffer;
+import java.util.HashSet;
 import java.util.Set;
 
 import static io.confluent.parallelconsumer.OffsetBitSet.deserialiseBitSetWrap;
 import static io.confluent.parallelconsumer.OffsetBitSet.deserialiseBitSetWrapToIncompletes;
+import static io.confluent.parallelconsumer.OffsetDeltaVarInt.deltaVarIntDecodeToIncompletes;
+import static io.confluent.parallelconsumer.OffsetDeltaVarInt.deltaVarIntDecodeToString;
 import static io.confluent.parallelconsumer.OffsetEncoding.*;
 import static io.confluent.parallelconsumer.OffsetEncoding.Version.v1;
 import static io.confluent.parallelconsumer.OffsetEncoding.Version.v2;
@@ -89,14 +92,35 @@ final class EncodedOffsetPair implements Comparable<EncodedOffsetPair> {
             case BitSetV2Compressed-> deserialiseBitSetWrap(data, v2);
             case RunLengthV2-> deserialiseBitSetWrap(data, v2);
             case RunLengthV2Compressed-> deserialiseBitSetWrap(data, v2);
+            case DeltaVarInt -> deltaVarIntDecodeToString(data);
+            case DeltaVarIntCompressed -> deltaVarIntDecodeToString(decompressZstd(data));
+            case CompressedEnvelope -> OffsetMapCompressionCodecs.decompress(data).getDecodedString();
             default -> throw new InternalRuntimeError("Invalid state"); // todo why is this needed? what's not covered?
         };
         return binaryArrayString;
     }
 
-    @SneakyThrows
+    /**
+     * @see #getDecodedIncompleteOffsets
+     */
     public Tuple<Long, Set<Long>> getDecodedIncompletes(long baseOffset) {
-        Tuple<Long, Set<Long>> binaryArrayString = switch (encoding) {
+        Tuple<Long, long[]> decoded = getDecodedIncompleteOffsets(baseOffset);
+        long[] offsets = decoded.getRight();
+        Set<Long> incompletes = new HashSet<>(offsets.length);
+        for (long offset : offsets) {
+            incompletes.add(offset);
+        }
+        return Tuple.pairOf(decoded.getLeft(), incompletes);
+    }
+
+    /**
+     * Decodes straight from the encoded data, without building an intermediate representation of the whole range.
+     *
+     * @return the high water mark, and the incomplete offsets in order
+     */
+    @SneakyThrows
+    public Tuple<Long, long[]> getDecodedIncompleteOffsets(long baseOffset) {
+        Tuple<Long, long[]> binaryArrayString = switch (encoding) {
 //            case ByteArray -> deserialiseByteArrayToBitMapString(data);
 //            case ByteArrayCompressed -> deserialiseByteArrayToBitMapString(decompressZstd(data));
             case BitSet -> deserialiseBitSetWrapToIncompletes(encoding, baseOffset, data);
@@ -107,6 +131,9 @@ final class EncodedOffsetPair implements Comparable<EncodedOffsetPair> {
             case BitSetV2Compressed -> deserialiseBitSetWrapToIncompletes(BitSetV2, baseOffset, decompressZstd(data));
             case RunLengthV2 -> runLengthDecodeToIncompletes(encoding, baseOffset, data);
             case RunLengthV2Compressed -> runLengthDecodeToIncompletes(RunLengthV2, baseOffset, decompressZstd(data));
+            case DeltaVarInt -> deltaVarIntDecodeToIncompletes(baseOffset, data);
+            case DeltaVarIntCompressed -> deltaVarIntDecodeToIncompletes(baseOffset, decompressZstd(data));
+            case CompressedEnvelope -> OffsetMapCompressionCodecs.decompress(data).getDecodedIncompleteOffsets(baseOffset);
             default -> throw new UnsupportedOperationException("Encoding (" + encoding.description() + ") not supported");
         };
         return binaryArrayString;
@@ -0,0 +1,127 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.confluent.parallelconsumer.OffsetMapCodecManager.CHARSET_TO_USE;
+
+/**
+ * Stores overflowing offset maps as files in a directory.
+ * <p>
+ * Each payload is written to a new file, named after its partition, committed offset, time written and a sequence
+ * number, which is used as the reference. Files for a partition are deleted once a later commit for it succeeds -
+ * either one for a higher offset, or the reference of one written after them. Files written after the committed one
+ * may be for commits still in flight, so are kept.
+ * <p>
+ * Files are forced to disk before their reference is returned, as the commit referring to them may otherwise survive
+ * a crash which they don't.
+ * <p>
+ * Offset maps only survive moving between consumers if the directory is shared between them (e.g. a network file
+ * system), otherwise they only survive restarts of the same instance.
+ */
+@Slf4j
+public class FileOffsetMapOverflowStore implements OffsetMapOverflowStore {
+
+    private static final String SUFFIX = ".offsets";
+
+    @Getter
+    private final Path directory;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public FileOffsetMapOverflowStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public String store(TopicPartition tp, long committedOffset, String payload) throws IOException {
+        String reference = prefix(tp) + committedOffset + "-" + System.currentTimeMillis() + "-" + sequence.incrementAndGet() + SUFFIX;
+        DurableFiles.write(directory, reference, payload.getBytes(CHARSET_TO_USE));
+        DurableFiles.forceDirectory(directory);
+        log.debug("Stored offset map overflow for {} ({} chars) as {}", tp, payload.length(), reference);
+        return reference;
+    }
+
+    @Override
+    public Optional<String> load(TopicPartition tp, String reference) throws IOException {
+        if (!reference.startsWith(prefix(tp)) || reference.contains("/") || reference.contains("\\")) {
+            throw new IllegalArgumentException("Reference " + reference + " is not for partition " + tp);
+        }
+        try {
+            return Optional.of(new String(Files.readAllBytes(directory.resolve(reference)), CHARSET_TO_USE));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void onCommitted(TopicPartition tp, long committedOffset, Optional<String> reference) {
+        String prefix = prefix(tp);
+        // with no reference, only files for lower offsets are known to be superseded
+        long[] committed = reference.map(ref -> parseOrder(prefix, ref)).orElse(new long[]{committedOffset, 0, 0});
+        if (committed == null) {
+            log.warn("Committed offset map overflow reference {} for {} not recognised, not cleaning up", reference.get(), tp);
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long[] order = parseOrder(prefix, name);
+                if (order != null && compare(order, committed) < 0) {
+                    log.trace("Deleting superseded offset map overflow {}", name);
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Error cleaning up offset map overflow files for {}", tp, e);
+        }
+    }
+
+    /**
+     * @return the committed offset, time written and sequence number of the file, or null if it's not one of ours
+     */
+    private static long[] parseOrder(String prefix, String name) {
+        if (!name.startsWith(prefix) || !name.endsWith(SUFFIX)) {
+            return null;
+        }
+        String[] parts = name.substring(prefix.length(), name.length() - SUFFIX.length()).split("-");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int compare = Long.compare(a[i], b[i]);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Topic names can't contain '@', so partitions can't share a prefix
+     */
+    private static String prefix(TopicPartition tp) {
+        return tp.topic() + "@" + tp.partition() + "@";
+    }
+}
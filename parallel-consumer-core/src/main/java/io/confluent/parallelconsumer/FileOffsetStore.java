@@ -0,0 +1,85 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+import static io.confluent.parallelconsumer.OffsetMapCodecManager.CHARSET_TO_USE;
+
+/**
+ * Stores offsets as files in a directory, one per partition.
+ * <p>
+ * Each partition's file holds the committed offset on the first line, followed by its offset map. Files are replaced
+ * atomically, so each partition is always either at its previous or its new state, but a commit of several partitions
+ * isn't atomic as a whole. Each file is forced to disk before it replaces the previous one, and the directory once they
+ * all have, so a commit survives a crash once it returns.
+ * <p>
+ * Offsets only survive moving between consumers if the directory is shared between them (e.g. a network file system),
+ * otherwise they only survive restarts of the same instance.
+ */
+@Slf4j
+public class FileOffsetStore implements OffsetStore {
+
+    private static final String SUFFIX = ".offsets";
+
+    @Getter
+    private final Path directory;
+
+    public FileOffsetStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public void commit(Map<TopicPartition, OffsetAndMetadata> offsets) throws IOException {
+        for (var entry : offsets.entrySet()) {
+            TopicPartition tp = entry.getKey();
+            OffsetAndMetadata offsetAndMetadata = entry.getValue();
+            String contents = offsetAndMetadata.offset() + "\n" + offsetAndMetadata.metadata();
+            DurableFiles.write(directory, fileName(tp), contents.getBytes(CHARSET_TO_USE));
+        }
+        DurableFiles.forceDirectory(directory);
+        log.debug("Stored offsets for {} partition(s)", offsets.size());
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> load(Set<TopicPartition> partitions) throws IOException {
+        Map<TopicPartition, OffsetAndMetadata> loaded = new HashMap<>();
+        for (TopicPartition tp : partitions) {
+            String contents;
+            try {
+                contents = new String(Files.readAllBytes(directory.resolve(fileName(tp))), CHARSET_TO_USE);
+            } catch (NoSuchFileException e) {
+                log.trace("No offsets stored for {}", tp);
+                continue;
+            }
+            int endOfOffset = contents.indexOf('\n');
+            if (endOfOffset < 0) {
+                throw new IOException(msg("Offset file for {} is corrupt: {}", tp, contents));
+            }
+            long offset = Long.parseLong(contents.substring(0, endOfOffset));
+            loaded.put(tp, new OffsetAndMetadata(offset, contents.substring(endOfOffset + 1)));
+        }
+        return loaded;
+    }
+
+    /**
+     * Topic names can't contain '@', so partitions can't share a file name
+     */
+    private static String fileName(TopicPartition tp) {
+        return tp.topic() + "@" + tp.partition() + SUFFIX;
+    }
+}
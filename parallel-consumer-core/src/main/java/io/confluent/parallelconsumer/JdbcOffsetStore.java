@@ -0,0 +1,134 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * Stores offsets in a database table, committing all the partitions of a commit in a single transaction.
+ * <p>
+ * The table must exist, with a row per partition of each consumer group, e.g.:
+ * <pre>
+ * CREATE TABLE parallel_consumer_offsets (
+ *     consumer_group   VARCHAR(255) NOT NULL,
+ *     topic            VARCHAR(255) NOT NULL,
+ *     kafka_partition  INT          NOT NULL,
+ *     committed_offset BIGINT       NOT NULL,
+ *     offset_map       TEXT,  -- or CLOB, depending on the database
+ *     PRIMARY KEY (consumer_group, topic, kafka_partition)
+ * )
+ * </pre>
+ * Only standard SQL is used - rows are updated, and inserted if they don't exist yet.
+ */
+@Slf4j
+public class JdbcOffsetStore implements OffsetStore {
+
+    public static final String DEFAULT_TABLE_NAME = "parallel_consumer_offsets";
+
+    private static final Pattern VALID_TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.]*");
+
+    private final DataSource dataSource;
+
+    @Getter
+    private final String consumerGroup;
+
+    @Getter
+    private final String tableName;
+
+    public JdbcOffsetStore(DataSource dataSource, String consumerGroup) {
+        this(dataSource, consumerGroup, DEFAULT_TABLE_NAME);
+    }
+
+    public JdbcOffsetStore(DataSource dataSource, String consumerGroup, String tableName) {
+        if (!VALID_TABLE_NAME.matcher(tableName).matches()) {
+            throw new IllegalArgumentException(msg("Invalid table name: {}", tableName));
+        }
+        this.dataSource = dataSource;
+        this.consumerGroup = consumerGroup;
+        this.tableName = tableName;
+    }
+
+    @Override
+    public void commit(Map<TopicPartition, OffsetAndMetadata> offsets) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                write(connection, offsets);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        log.debug("Stored offsets for {} partition(s)", offsets.size());
+    }
+
+    /**
+     * Write the offsets using the given connection, without committing or closing it
+     */
+    private void write(Connection connection, Map<TopicPartition, OffsetAndMetadata> offsets) throws SQLException {
+        String update = "UPDATE " + tableName + " SET committed_offset = ?, offset_map = ? WHERE consumer_group = ? AND topic = ? AND kafka_partition = ?";
+        String insert = "INSERT INTO " + tableName + " (consumer_group, topic, kafka_partition, committed_offset, offset_map) VALUES (?, ?, ?, ?, ?)";
+        try (PreparedStatement updateStatement = connection.prepareStatement(update);
+             PreparedStatement insertStatement = connection.prepareStatement(insert)) {
+            for (var entry : offsets.entrySet()) {
+                TopicPartition tp = entry.getKey();
+                OffsetAndMetadata offsetAndMetadata = entry.getValue();
+                updateStatement.setLong(1, offsetAndMetadata.offset());
+                updateStatement.setString(2, offsetAndMetadata.metadata());
+                updateStatement.setString(3, consumerGroup);
+                updateStatement.setString(4, tp.topic());
+                updateStatement.setInt(5, tp.partition());
+                if (updateStatement.executeUpdate() == 0) {
+                    insertStatement.setString(1, consumerGroup);
+                    insertStatement.setString(2, tp.topic());
+                    insertStatement.setInt(3, tp.partition());
+                    insertStatement.setLong(4, offsetAndMetadata.offset());
+                    insertStatement.setString(5, offsetAndMetadata.metadata());
+                    insertStatement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> load(Set<TopicPartition> partitions) throws SQLException {
+        Map<TopicPartition, OffsetAndMetadata> loaded = new HashMap<>();
+        String select = "SELECT committed_offset, offset_map FROM " + tableName + " WHERE consumer_group = ? AND topic = ? AND kafka_partition = ?";
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(select)) {
+            for (TopicPartition tp : partitions) {
+                statement.setString(1, consumerGroup);
+                statement.setString(2, tp.topic());
+                statement.setInt(3, tp.partition());
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        String offsetMap = resultSet.getString(2);
+                        loaded.put(tp, new OffsetAndMetadata(resultSet.getLong(1), offsetMap == null ? "" : offsetMap));
+                    }
+                }
+            }
+        }
+        return loaded;
+    }
+}
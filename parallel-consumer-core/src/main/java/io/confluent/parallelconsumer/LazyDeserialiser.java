@@ -0,0 +1,74 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Moves deserialisation off the broker poller thread, and onto the processing threads.
+ * <p>
+ * Normally records are deserialised inside {@link org.apache.kafka.clients.consumer.KafkaConsumer#poll}, on the single
+ * broker poller thread, which for heavy payloads (e.g. Avro or Protobuf) can limit ingest to a single core. Instead,
+ * configure the consumer with {@link org.apache.kafka.common.serialization.ByteArrayDeserializer}s, and wrap your
+ * function with this class, so the raw records are deserialised with your {@link Deserializer}s in parallel, just
+ * before your function is called.
+ * <p>
+ * With {@link ParallelConsumerOptions.ProcessingOrder#KEY} ordering, the raw key bytes are used to shard records, so
+ * the ordering guarantee is the same as with deserialised keys (assuming equal keys serialise to equal bytes).
+ * <p>
+ * A deserialisation error is treated like any other error thrown by the user function - the record will be retried.
+ *
+ * <pre>{@code
+ * ParallelStreamProcessor<byte[], byte[]> pc = ParallelStreamProcessor.createEosStreamProcessor(options);
+ * var lazy = new LazyDeserialiser<>(new StringDeserializer(), myAvroDeserializer);
+ * pc.poll(lazy.wrap(record -> process(record.value())));
+ * }</pre>
+ *
+ * @param <K> the deserialised key type
+ * @param <V> the deserialised value type
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class LazyDeserialiser<K, V> {
+
+    private final Deserializer<K> keyDeserializer;
+
+    private final Deserializer<V> valueDeserializer;
+
+    /**
+     * Deserialise a raw record, keeping all of its metadata
+     */
+    public ConsumerRecord<K, V> deserialise(ConsumerRecord<byte[], byte[]> raw) {
+        K key = raw.key() == null ? null : keyDeserializer.deserialize(raw.topic(), raw.headers(), raw.key());
+        V value = valueDeserializer.deserialize(raw.topic(), raw.headers(), raw.value());
+        log.trace("Lazily deserialised {}-{}:{}", raw.topic(), raw.partition(), raw.offset());
+        return new ConsumerRecord<>(raw.topic(), raw.partition(), raw.offset(),
+                raw.timestamp(), raw.timestampType(), null,
+                raw.serializedKeySize(), raw.serializedValueSize(),
+                key, value, raw.headers(), raw.leaderEpoch());
+    }
+
+    /**
+     * Wrap a function for use with {@link ParallelConsumer#poll}, which will deserialise each record on the processing
+     * thread before calling it.
+     */
+    public Consumer<ConsumerRecord<byte[], byte[]>> wrap(Consumer<ConsumerRecord<K, V>> userFunction) {
+        return raw -> userFunction.accept(deserialise(raw));
+    }
+
+    /**
+     * Wrap a function for use with the produce flows of {@link ParallelStreamProcessor}, which will deserialise each
+     * record on the processing thread before calling it.
+     */
+    public <R> Function<ConsumerRecord<byte[], byte[]>, R> wrapFunction(Function<ConsumerRecord<K, V>, R> userFunction) {
+        return raw -> userFunction.apply(deserialise(raw));
+    }
+}
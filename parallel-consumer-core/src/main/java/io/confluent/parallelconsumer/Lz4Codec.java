@@ -0,0 +1,68 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * LZ4 block compression - much faster than zstd, but compresses less, so only used for larger offset maps, where
+ * long runs of the same bytes compress well regardless.
+ * <p>
+ * Only available if LZ4 is on the classpath (it normally is, through the Kafka client), so this class must only be
+ * loaded after checking - see {@link OffsetMapCompressionCodecs}.
+ */
+class Lz4Codec implements OffsetMapCompressionCodec {
+
+    static final byte ID = (byte) '4';
+
+    static final String LZ4_CLASS = "net.jpountz.lz4.LZ4Factory";
+
+    /**
+     * Below this, the dictionary gives zstd the edge, and its cost is small anyway
+     */
+    private static final int MINIMUM_INPUT_LENGTH = 4 * 1024;
+
+    private final LZ4Compressor compressor;
+
+    private final LZ4SafeDecompressor decompressor;
+
+    Lz4Codec() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public int getMinimumInputLength() {
+        return MINIMUM_INPUT_LENGTH;
+    }
+
+    @Override
+    public int maxCompressedLength(int inputLength) {
+        return compressor.maxCompressedLength(inputLength);
+    }
+
+    @Override
+    public int compress(byte[] input, byte[] output, int outputOffset) {
+        return compressor.compress(input, 0, input.length, output, outputOffset, output.length - outputOffset);
+    }
+
+    @Override
+    public void decompress(byte[] input, int inputOffset, int inputLength, byte[] output) {
+        int decompressed = decompressor.decompress(input, inputOffset, inputLength, output, 0, output.length);
+        if (decompressed != output.length) {
+            throw new IllegalArgumentException(msg("Decompressed {} bytes, expected {}", decompressed, output.length));
+        }
+    }
+}
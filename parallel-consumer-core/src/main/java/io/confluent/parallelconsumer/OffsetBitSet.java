@@ -9,8 +9,7 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.nio.ByteBuffer;
 import java.util.BitSet;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.stream.LongStream;
 
 import static io.confluent.csid.utils.Range.range;
 
@@ -51,7 +50,7 @@ public class OffsetBitSet {
         return result.toString();
     }
 
-    static Tuple<Long, Set<Long>> deserialiseBitSetWrapToIncompletes(OffsetEncoding encoding, long baseOffset, ByteBuffer wrap) {
+    static Tuple<Long, long[]> deserialiseBitSetWrapToIncompletes(OffsetEncoding encoding, long baseOffset, ByteBuffer wrap) {
         wrap.rewind();
         int originalBitsetSize = switch(encoding) {
             case BitSet -> wrap.getShort();
@@ -59,22 +58,21 @@ public class OffsetBitSet {
             default -> throw new InternalRuntimeError("Invalid state");
         };
         ByteBuffer slice = wrap.slice();
-        Set<Long> incompletes = deserialiseBitSetToIncompletes(baseOffset, originalBitsetSize, slice);
+        long[] incompletes = deserialiseBitSetToIncompletes(baseOffset, originalBitsetSize, slice);
         long highwaterMark = baseOffset + originalBitsetSize;
         return Tuple.pairOf(highwaterMark, incompletes);
     }
 
-    static Set<Long> deserialiseBitSetToIncompletes(long baseOffset, int originalBitsetSize, ByteBuffer inputBuffer) {
+    /**
+     * @return the incomplete offsets, in order
+     */
+    static long[] deserialiseBitSetToIncompletes(long baseOffset, int originalBitsetSize, ByteBuffer inputBuffer) {
         BitSet bitSet = BitSet.valueOf(inputBuffer);
-        var incompletes = new HashSet<Long>(); // can't know how big this needs to be yet
-        for (var relativeOffset : range(originalBitsetSize)) {
-            long offset = baseOffset + relativeOffset;
-            if (bitSet.get(relativeOffset)) {
-                log.trace("Ignoring completed offset");
-            } else {
-                incompletes.add(offset);
-            }
+        LongStream.Builder incompletes = LongStream.builder(); // can't know how big this needs to be yet
+        // incompletes are the unset bits - runs of completed offsets are skipped over a word at a time
+        for (int relativeOffset = bitSet.nextClearBit(0); relativeOffset < originalBitsetSize; relativeOffset = bitSet.nextClearBit(relativeOffset + 1)) {
+            incompletes.add(baseOffset + relativeOffset);
         }
-        return incompletes;
+        return incompletes.build().toArray();
     }
 }
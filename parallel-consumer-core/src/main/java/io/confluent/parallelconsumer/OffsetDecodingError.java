@@ -1,7 +1,11 @@
 package io.confluent.parallelconsumer;
 
 public class OffsetDecodingError extends Exception {
-    public OffsetDecodingError(final String s, final IllegalArgumentException a) {
-        super(s, a);
+    public OffsetDecodingError(final String s) {
+        super(s);
+    }
+
+    public OffsetDecodingError(final String s, final Throwable cause) {
+        super(s, cause);
     }
 }
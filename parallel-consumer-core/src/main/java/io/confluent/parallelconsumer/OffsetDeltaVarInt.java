@@ -0,0 +1,126 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import io.confluent.parallelconsumer.ParallelConsumer.Tuple;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.stream.LongStream;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * Delta varint serialisation format:
+ * <ul>
+ * <li>varint: length of the encoded range
+ * <li>varint per incomplete offset: the gap from the previous incomplete offset (or from the start of the range for
+ * the first), so consecutive incompletes take a single byte each
+ * </ul>
+ * Varints are unsigned LEB128 - seven bits per byte, least significant first, the high bit set on all but the last
+ * byte.
+ *
+ * @see DeltaVarIntEncoder
+ */
+@Slf4j
+@UtilityClass
+public class OffsetDeltaVarInt {
+
+    private static final int VALUE_BITS = 0x7F;
+
+    private static final int CONTINUATION_BIT = 0x80;
+
+    static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~VALUE_BITS) != 0) {
+            out.write((value & VALUE_BITS) | CONTINUATION_BIT);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * @return the position after the varint
+     */
+    static int writeVarInt(byte[] out, int position, int value) {
+        while ((value & ~VALUE_BITS) != 0) {
+            out[position++] = (byte) ((value & VALUE_BITS) | CONTINUATION_BIT);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * @throws OffsetDecodingError if the input ends in the middle of the varint, or it's too long for an int
+     */
+    static int readVarInt(ByteBuffer in) throws OffsetDecodingError {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new OffsetDecodingError("Offset map ends in the middle of a varint");
+            }
+            byte b = in.get();
+            value |= (b & VALUE_BITS) << shift;
+            if ((b & CONTINUATION_BIT) == 0) {
+                return value;
+            }
+        }
+        throw new OffsetDecodingError(msg("Varint longer than {} bits", Integer.SIZE));
+    }
+
+    static Tuple<Long, long[]> deltaVarIntDecodeToIncompletes(final long baseOffset, final ByteBuffer in) throws OffsetDecodingError {
+        in.rewind();
+        int length = readLength(in);
+        LongStream.Builder incompletes = LongStream.builder();
+        long previousRelativeOffset = -1;
+        while (in.hasRemaining()) {
+            long relativeOffset = nextRelativeOffset(in, previousRelativeOffset, length);
+            incompletes.add(baseOffset + relativeOffset);
+            previousRelativeOffset = relativeOffset;
+        }
+        long highwaterMark = baseOffset + length;
+        return Tuple.pairOf(highwaterMark, incompletes.build().toArray());
+    }
+
+    static String deltaVarIntDecodeToString(final ByteBuffer in) throws OffsetDecodingError {
+        in.rewind();
+        int length = readLength(in);
+        var sb = new StringBuilder(length);
+        long previousRelativeOffset = -1;
+        while (in.hasRemaining()) {
+            long relativeOffset = nextRelativeOffset(in, previousRelativeOffset, length);
+            for (long i = previousRelativeOffset + 1; i < relativeOffset; i++) {
+                sb.append('x');
+            }
+            sb.append('o');
+            previousRelativeOffset = relativeOffset;
+        }
+        while (sb.length() < length) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+    private static int readLength(ByteBuffer in) throws OffsetDecodingError {
+        int length = readVarInt(in);
+        if (length < 0) {
+            throw new OffsetDecodingError(msg("Negative encoded range length {}", length));
+        }
+        return length;
+    }
+
+    /**
+     * Gaps are unsigned, so are read as such - a corrupt gap can't move backwards
+     */
+    private static long nextRelativeOffset(ByteBuffer in, long previousRelativeOffset, int length) throws OffsetDecodingError {
+        long relativeOffset = previousRelativeOffset + Integer.toUnsignedLong(readVarInt(in)) + 1;
+        if (relativeOffset >= length) {
+            throw new OffsetDecodingError(msg("Incomplete offset {} beyond the encoded range length of {}", relativeOffset, length));
+        }
+        return relativeOffset;
+    }
+}
@@ -0,0 +1,111 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.experimental.UtilityClass;
+
+import java.util.Arrays;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * Packs binary offset maps into text more densely than base64, for the commit metadata - which is limited in
+ * characters, not bytes.
+ * <p>
+ * Each character carries 15 bits, as a code point in the block U+4000 to U+BFFF - which contains no surrogates, so the
+ * text is valid UTF-8 when serialised. If the last character would carry 7 bits or fewer, it's taken from the block
+ * U+0100 to U+017F instead, so the decoder knows not to produce an extra byte from the padding.
+ * <p>
+ * Format:
+ * <ul>
+ * <li>char1: {@link #PREFIX} - identifies this packing, any later packing will have its own prefix
+ * <li>char2-n: the packed bits, most significant first
+ * </ul>
+ *
+ * @see ParallelConsumerOptions.OffsetMapTextEncoding#DENSE
+ */
+@UtilityClass
+class OffsetDenseText {
+
+    /**
+     * Not part of the base64 alphabet, nor the {@link OffsetMapCodecManager#OVERFLOW_REFERENCE_PREFIX}
+     */
+    static final String PREFIX = "~";
+
+    private static final int BITS_PER_CHAR = 15;
+
+    private static final int FULL_CHAR_BASE = 0x4000;
+
+    private static final int FULL_CHAR_MASK = (1 << BITS_PER_CHAR) - 1;
+
+    private static final int TAIL_BITS_PER_CHAR = 7;
+
+    private static final int TAIL_CHAR_BASE = 0x0100;
+
+    private static final int TAIL_CHAR_MASK = (1 << TAIL_BITS_PER_CHAR) - 1;
+
+    static boolean isDenseText(String text) {
+        return text.startsWith(PREFIX);
+    }
+
+    /**
+     * @return the most bytes which can be packed into this many characters, including the prefix
+     */
+    static int maxBytesEncodable(int chars) {
+        return (int) ((long) (chars - PREFIX.length()) * BITS_PER_CHAR / Byte.SIZE);
+    }
+
+    static String encode(byte[] bytes) {
+        int chars = (bytes.length * Byte.SIZE + BITS_PER_CHAR - 1) / BITS_PER_CHAR;
+        StringBuilder text = new StringBuilder(PREFIX.length() + chars);
+        text.append(PREFIX);
+        int buffer = 0;
+        int bufferedBits = 0;
+        for (byte b : bytes) {
+            buffer = (buffer << Byte.SIZE) | (b & 0xFF);
+            bufferedBits += Byte.SIZE;
+            if (bufferedBits >= BITS_PER_CHAR) {
+                bufferedBits -= BITS_PER_CHAR;
+                text.append((char) (FULL_CHAR_BASE + ((buffer >>> bufferedBits) & FULL_CHAR_MASK)));
+            }
+        }
+        if (bufferedBits > TAIL_BITS_PER_CHAR) {
+            text.append((char) (FULL_CHAR_BASE + ((buffer << (BITS_PER_CHAR - bufferedBits)) & FULL_CHAR_MASK)));
+        } else if (bufferedBits > 0) {
+            text.append((char) (TAIL_CHAR_BASE + ((buffer << (TAIL_BITS_PER_CHAR - bufferedBits)) & TAIL_CHAR_MASK)));
+        }
+        return text.toString();
+    }
+
+    static byte[] decode(String text) {
+        if (!isDenseText(text)) {
+            throw new IllegalArgumentException(msg("Not dense offset map text, missing prefix: {}", text));
+        }
+        int length = text.length();
+        byte[] bytes = new byte[maxBytesEncodable(length) + 1];
+        int decoded = 0;
+        int buffer = 0;
+        int bufferedBits = 0;
+        for (int i = PREFIX.length(); i < length; i++) {
+            int c = text.charAt(i);
+            if (c >= FULL_CHAR_BASE && c <= FULL_CHAR_BASE + FULL_CHAR_MASK) {
+                buffer = (buffer << BITS_PER_CHAR) | (c - FULL_CHAR_BASE);
+                bufferedBits += BITS_PER_CHAR;
+            } else if (c >= TAIL_CHAR_BASE && c <= TAIL_CHAR_BASE + TAIL_CHAR_MASK && i == length - 1) {
+                buffer = (buffer << TAIL_BITS_PER_CHAR) | (c - TAIL_CHAR_BASE);
+                bufferedBits += TAIL_BITS_PER_CHAR;
+            } else {
+                throw new IllegalArgumentException(msg("Invalid character U+{} at position {} of dense offset map text",
+                        Integer.toHexString(c), i));
+            }
+            while (bufferedBits >= Byte.SIZE) {
+                bufferedBits -= Byte.SIZE;
+                bytes[decoded++] = (byte) (buffer >>> bufferedBits);
+            }
+        }
+        // any remaining bits are padding
+        return Arrays.copyOf(bytes, decoded);
+    }
+}
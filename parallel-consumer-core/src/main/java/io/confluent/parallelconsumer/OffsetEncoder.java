@@ -26,6 +26,28 @@ abstract class OffsetEncoder {
 
     abstract void encodeCompletedOffset(final int rangeIndex);
 
+    /**
+     * Encode a run of incomplete offsets, from the start index inclusive, to the end index exclusive.
+     * <p>
+     * Encoders which can should encode the run in bulk - by default each offset is encoded individually.
+     */
+    void encodeIncompleteOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        for (int rangeIndex = fromRangeIndex; rangeIndex < toRangeIndex; rangeIndex++) {
+            encodeIncompleteOffset(rangeIndex);
+        }
+    }
+
+    /**
+     * Encode a run of completed offsets, from the start index inclusive, to the end index exclusive.
+     *
+     * @see #encodeIncompleteOffsets
+     */
+    void encodeCompletedOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        for (int rangeIndex = fromRangeIndex; rangeIndex < toRangeIndex; rangeIndex++) {
+            encodeCompletedOffset(rangeIndex);
+        }
+    }
+
     abstract byte[] serialise() throws EncodingNotSupportedException;
 
     abstract int getEncodedSize();
@@ -44,6 +66,20 @@ abstract class OffsetEncoder {
         this.register(encodingType, bytes);
     }
 
+    /**
+     * Compress with the {@link OffsetMapCompressionCodec}s, keeping the envelope if it's the smallest compressed so far
+     *
+     * @see OffsetMapCompressionCodecs#compress(OffsetEncoding, byte[])
+     */
+    void registerCodecCompressed() {
+        OffsetMapCompressionCodecs.compress(this.getEncodingType(), this.getEncodedBytes()).ifPresent(envelope -> {
+            byte[] existing = offsetSimultaneousEncoder.encodingMap.get(OffsetEncoding.CompressedEnvelope);
+            if (existing == null || envelope.length < existing.length) {
+                this.register(OffsetEncoding.CompressedEnvelope, envelope);
+            }
+        });
+    }
+
     private void register(final OffsetEncoding type, final byte[] bytes) {
         log.debug("Registering {}, with site {}", type, bytes.length);
         offsetSimultaneousEncoder.sortedEncodings.add(new EncodedOffsetPair(type, ByteBuffer.wrap(bytes)));
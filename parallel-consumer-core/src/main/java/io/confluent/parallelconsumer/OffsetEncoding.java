@@ -34,7 +34,19 @@ enum OffsetEncoding {
      * switch from encoding run lengths as Shorts to Integers
      */
     RunLengthV2(v2, (byte) 'e'),
-    RunLengthV2Compressed(v2, (byte) 'p');
+    RunLengthV2Compressed(v2, (byte) 'p'),
+    /**
+     * Only the incomplete offsets, as varint gaps between them - size independent of the length of the range
+     */
+    DeltaVarInt(v2, (byte) 'd'),
+    DeltaVarIntCompressed(v2, (byte) 'D'),
+    /**
+     * Any of the uncompressed encodings, compressed with one of the {@link OffsetMapCompressionCodec}s - the envelope
+     * records which encoding and codec
+     *
+     * @see OffsetMapCompressionCodecs
+     */
+    CompressedEnvelope(v2, (byte) 'E');
 
     enum Version {
         v1, v2
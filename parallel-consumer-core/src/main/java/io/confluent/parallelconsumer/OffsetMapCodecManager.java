@@ -4,6 +4,7 @@ package io.confluent.parallelconsumer;
  * Copyright (C) 2020 Confluent, Inc.
  */
 
+import io.confluent.parallelconsumer.ParallelConsumerOptions.OffsetMapTextEncoding;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
@@ -14,6 +15,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static io.confluent.csid.utils.Range.range;
 import static io.confluent.csid.utils.StringUtils.msg;
@@ -45,8 +47,22 @@ public class OffsetMapCodecManager<K, V> {
      */
     public static final int DefaultMaxMetadataSize = 4096;
 
+    /**
+     * How far beyond the committed offset records can be tracked, while guaranteeing the offset map fits in the metadata
+     * budget, when base64 encoded.
+     *
+     * @see #maxOffsetsEncodableInMetadata
+     */
+    static final int MAX_OFFSETS_ENCODABLE_IN_METADATA = maxOffsetsEncodableInMetadata(OffsetMapTextEncoding.BASE64);
+
     public static final Charset CHARSET_TO_USE = UTF_8;
 
+    /**
+     * Marks commit metadata which is a reference to an offset map in the {@link OffsetMapOverflowStore}, rather than
+     * the offset map itself. Not part of the base64 alphabet.
+     */
+    static final String OVERFLOW_REFERENCE_PREFIX = "@";
+
     private final WorkManager<K, V> wm;
 
     org.apache.kafka.clients.consumer.Consumer<K, V> consumer;
@@ -70,40 +86,131 @@ public class OffsetMapCodecManager<K, V> {
     }
 
     /**
-     * Load all the previously completed offsets that were not committed
+     * Load all the previously completed offsets that were not committed.
+     * <p>
+     * The committed offsets are fetched in a single request, but when there are several partitions to decode (e.g. a
+     * large assignment upon a rebalance), they are decoded in parallel, off the calling rebalance callback thread.
+     * Records from each partition are then held back by the {@link WorkManager} until its offset map is ready.
      */
     void loadOffsetMapForPartition(final Set<TopicPartition> assignment) {
-        Map<TopicPartition, OffsetAndMetadata> committed = consumer.committed(assignment);
+        Map<TopicPartition, OffsetAndMetadata> committed = fetchCommitted(assignment);
+        long toDecode = committed.values().stream().filter(Objects::nonNull).count();
         committed.forEach((tp, offsetAndMeta) -> {
             if (offsetAndMeta != null) {
-                long offset = offsetAndMeta.offset();
-                String metadata = offsetAndMeta.metadata();
-                try {
-                    loadOffsetMetadataPayload(offset, tp, metadata);
-                } catch (OffsetDecodingError offsetDecodingError) {
-                    log.error("Error decoding offsets from assigned partition, dropping offset map (will replay previously completed messages - partition: {}, data: {})",
-                            tp, offsetAndMeta, offsetDecodingError);
+                if (toDecode > 1) {
+                    wm.onOffsetMapLoading(tp, CompletableFuture.supplyAsync(() -> decodeOrDrop(tp, offsetAndMeta), wm.getOffsetMapDecodePool()));
+                } else {
+                    decodeOrDrop(tp, offsetAndMeta).ifPresent(incompletes -> wm.onOffsetMapLoaded(tp, incompletes));
                 }
             }
         });
     }
 
+    /**
+     * Fetches the committed offsets from the {@link OffsetStore} if there is one, positioning the consumer at them (as
+     * the consumer's own committed offsets aren't used), otherwise from the consumer.
+     */
+    private Map<TopicPartition, OffsetAndMetadata> fetchCommitted(Set<TopicPartition> assignment) {
+        Optional<OffsetStore> offsetStore = wm.getOptions().getOffsetStore();
+        if (!offsetStore.isPresent()) {
+            return consumer.committed(assignment);
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> stored;
+        try {
+            stored = offsetStore.get().load(assignment);
+        } catch (Exception e) {
+            // carrying on would start from the consumer's own position, which isn't being committed
+            throw new InternalRuntimeError(msg("Error loading offsets for {} from the offset store", assignment), e);
+        }
+        stored.forEach((tp, offsetAndMeta) -> {
+            log.debug("Seeking {} to offset {} from the offset store", tp, offsetAndMeta.offset());
+            consumer.seek(tp, offsetAndMeta.offset());
+        });
+        return stored;
+    }
+
+    /**
+     * How far beyond the committed offset records can be tracked, while guaranteeing the offset map fits in the metadata
+     * budget. The worst case is a bitset - one bit per offset plus its header, then packed into text.
+     */
+    static int maxOffsetsEncodableInMetadata(OffsetMapTextEncoding textEncoding) {
+        int maxBytes = switch (textEncoding) {
+            case BASE64 -> DefaultMaxMetadataSize / 4 * 3;
+            case DENSE -> OffsetDenseText.maxBytesEncodable(DefaultMaxMetadataSize);
+        };
+        return (maxBytes - Byte.BYTES - Integer.BYTES - 1) * Byte.SIZE;
+    }
+
+    /**
+     * Commit metadata can be corrupt (or not ours at all), and the decoders can fail in many ways on corrupt input - none
+     * of which are worth failing over, as dropping the map only means replaying the completed records
+     */
+    private Optional<ParallelConsumer.Tuple<Long, long[]>> decodeOrDrop(TopicPartition tp, OffsetAndMetadata offsetAndMeta) {
+        try {
+            String metadata = offsetAndMeta.metadata();
+            Optional<String> overflowReference = getOverflowReference(metadata);
+            if (overflowReference.isPresent()) {
+                Optional<String> overflow = loadOverflow(tp, overflowReference.get());
+                if (!overflow.isPresent()) {
+                    log.warn("Offset map for {} is in the overflow store ({}), but couldn't be loaded, dropping offset map (will replay previously completed messages)",
+                            tp, overflowReference.get());
+                    return Optional.empty();
+                }
+                metadata = overflow.get();
+            }
+            return Optional.of(deserialiseIncompleteOffsetsFromBase64(offsetAndMeta.offset(), metadata));
+        } catch (OffsetDecodingError | RuntimeException offsetDecodingError) {
+            log.error("Error decoding offsets from assigned partition, dropping offset map (will replay previously completed messages - partition: {}, data: {})",
+                    tp, offsetAndMeta, offsetDecodingError);
+            return Optional.empty();
+        }
+    }
+
+    private Optional<String> loadOverflow(TopicPartition tp, String reference) {
+        Optional<OffsetMapOverflowStore> store = wm.getOffsetMapOverflowStore();
+        if (!store.isPresent()) {
+            log.error("Offset map for {} is in an overflow store, but no store is configured", tp);
+            return Optional.empty();
+        }
+        try {
+            return store.get().load(tp, reference);
+        } catch (Exception e) {
+            log.error("Error loading offset map for {} from the overflow store", tp, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return the overflow store reference, if the commit metadata is one
+     */
+    static Optional<String> getOverflowReference(String metadata) {
+        if (metadata != null && metadata.startsWith(OVERFLOW_REFERENCE_PREFIX)) {
+            return Optional.of(metadata.substring(OVERFLOW_REFERENCE_PREFIX.length()));
+        }
+        return Optional.empty();
+    }
+
     static ParallelConsumer.Tuple<Long, TreeSet<Long>> deserialiseIncompleteOffsetMapFromBase64(long finalBaseComittedOffsetForPartition, String incompleteOffsetMap) throws OffsetDecodingError {
+        ParallelConsumer.Tuple<Long, long[]> incompleteOffsets = deserialiseIncompleteOffsetsFromBase64(finalBaseComittedOffsetForPartition, incompleteOffsetMap);
+        TreeSet<Long> longs = new TreeSet<>();
+        for (long offset : incompleteOffsets.getRight()) {
+            longs.add(offset);
+        }
+        return ParallelConsumer.Tuple.pairOf(incompleteOffsets.getLeft(), longs);
+    }
+
+    /**
+     * @return the high water mark, and the incomplete offsets in order
+     */
+    static ParallelConsumer.Tuple<Long, long[]> deserialiseIncompleteOffsetsFromBase64(long finalBaseComittedOffsetForPartition, String incompleteOffsetMap) throws OffsetDecodingError {
         byte[] decodedBytes;
         try {
-            decodedBytes = OffsetSimpleSerialisation.decodeBase64(incompleteOffsetMap);
+            decodedBytes = decodeOffsetMapText(incompleteOffsetMap);
         } catch (IllegalArgumentException a) {
             throw new OffsetDecodingError(msg("Error decoding offset metadata, input was: {}", incompleteOffsetMap), a);
         }
-        ParallelConsumer.Tuple<Long, Set<Long>> incompleteOffsets = decodeCompressedOffsets(finalBaseComittedOffsetForPartition, decodedBytes);
-        TreeSet<Long> longs = new TreeSet<>(incompleteOffsets.getRight());
-        return ParallelConsumer.Tuple.pairOf(incompleteOffsets.getLeft(), longs);
-    }
-
-    void loadOffsetMetadataPayload(long startOffset, TopicPartition tp, String offsetMetadataPayload) throws OffsetDecodingError {
-        ParallelConsumer.Tuple<Long, TreeSet<Long>> incompletes = deserialiseIncompleteOffsetMapFromBase64(startOffset, offsetMetadataPayload);
-        wm.raisePartitionHighWaterMark(incompletes.getLeft(), tp);
-        wm.partitionIncompleteOffsets.put(tp, incompletes.getRight());
+        return decodeCompressedIncompleteOffsets(finalBaseComittedOffsetForPartition, decodedBytes);
     }
 
     String makeOffsetMetadataPayload(long finalOffsetForPartition, TopicPartition tp, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
@@ -111,6 +218,29 @@ public class OffsetMapCodecManager<K, V> {
         return offsetMap;
     }
 
+    /**
+     * @param nextExpectedOffset the end of the range to encode - offsets from here on are treated as never seen when
+     *                           decoded
+     */
+    String makeOffsetMetadataPayload(long finalOffsetForPartition, long nextExpectedOffset, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
+        byte[] compressedEncoding = encodeOffsetsCompressed(finalOffsetForPartition, nextExpectedOffset, incompleteOffsets);
+        return switch (wm.getOffsetMapTextEncoding()) {
+            case BASE64 -> OffsetSimpleSerialisation.base64(compressedEncoding);
+            case DENSE -> OffsetDenseText.encode(compressedEncoding);
+        };
+    }
+
+    /**
+     * Either text encoding is decoded, regardless of the one configured, so it can be changed on a running group
+     */
+    static byte[] decodeOffsetMapText(String text) {
+        if (OffsetDenseText.isDenseText(text)) {
+            return OffsetDenseText.decode(text);
+        } else {
+            return OffsetSimpleSerialisation.decodeBase64(text);
+        }
+    }
+
     String serialiseIncompleteOffsetMapToBase64(long finalOffsetForPartition, TopicPartition tp, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
         byte[] compressedEncoding = encodeOffsetsCompressed(finalOffsetForPartition, tp, incompleteOffsets);
         String b64 = OffsetSimpleSerialisation.base64(compressedEncoding);
@@ -127,7 +257,15 @@ public class OffsetMapCodecManager<K, V> {
      */
     byte[] encodeOffsetsCompressed(long finalOffsetForPartition, TopicPartition tp, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
         Long nextExpectedOffset = wm.partitionOffsetHighWaterMarks.get(tp) + 1;
-        OffsetSimultaneousEncoder simultaneousEncoder = new OffsetSimultaneousEncoder(finalOffsetForPartition, nextExpectedOffset, incompleteOffsets).invoke();
+        return encodeOffsetsCompressed(finalOffsetForPartition, nextExpectedOffset, incompleteOffsets);
+    }
+
+    private byte[] encodeOffsetsCompressed(long finalOffsetForPartition, long nextExpectedOffset, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
+        OffsetSimultaneousEncoder simultaneousEncoder = new OffsetSimultaneousEncoder(finalOffsetForPartition, nextExpectedOffset, incompleteOffsets);
+        if (forcedCodec.isPresent()) {
+            simultaneousEncoder.withAllEncoders();
+        }
+        simultaneousEncoder.invoke();
         if (forcedCodec.isPresent()) {
             OffsetEncoding forcedOffsetEncoding = forcedCodec.get();
             log.warn("Forcing use of {}, for testing", forcedOffsetEncoding);
@@ -148,20 +286,29 @@ public class OffsetMapCodecManager<K, V> {
      * @return Set of offsets which are not complete.
      */
     static ParallelConsumer.Tuple<Long, Set<Long>> decodeCompressedOffsets(long finalOffsetForPartition, byte[] decodedBytes) {
+        ParallelConsumer.Tuple<Long, long[]> incompletesTuple = decodeCompressedIncompleteOffsets(finalOffsetForPartition, decodedBytes);
+        Set<Long> incompletes = new HashSet<>(incompletesTuple.getRight().length);
+        for (long offset : incompletesTuple.getRight()) {
+            incompletes.add(offset);
+        }
+        return ParallelConsumer.Tuple.pairOf(incompletesTuple.getLeft(), incompletes);
+    }
+
+    /**
+     * Decodes straight into an array of the incomplete offsets, without boxing - large offset maps can contain millions
+     * of incompletes.
+     *
+     * @return the high water mark, and the incomplete offsets in order
+     */
+    static ParallelConsumer.Tuple<Long, long[]> decodeCompressedIncompleteOffsets(long finalOffsetForPartition, byte[] decodedBytes) {
         if (decodedBytes.length == 0) {
             // no offset bitmap data
-            return ParallelConsumer.Tuple.pairOf(finalOffsetForPartition, UniSets.of());
+            return ParallelConsumer.Tuple.pairOf(finalOffsetForPartition, new long[0]);
         }
 
         EncodedOffsetPair result = EncodedOffsetPair.unwrap(decodedBytes);
 
-        ParallelConsumer.Tuple<Long, Set<Long>> incompletesTuple = result.getDecodedIncompletes(finalOffsetForPartition);
-
-        Set<Long> incompletes = incompletesTuple.getRight();
-        long highWater = incompletesTuple.getLeft();
-
-        ParallelConsumer.Tuple<Long, Set<Long>> tuple = ParallelConsumer.Tuple.pairOf(highWater, incompletes);
-        return tuple;
+        return result.getDecodedIncompleteOffsets(finalOffsetForPartition);
     }
 
     String incompletesToBitmapString(long finalOffsetForPartition, TopicPartition tp, Set<Long> incompleteOffsets) {
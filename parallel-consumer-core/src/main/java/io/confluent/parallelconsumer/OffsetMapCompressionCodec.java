@@ -0,0 +1,51 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+/**
+ * A compression codec for encoded offset maps.
+ * <p>
+ * Compressed offset maps are wrapped in an envelope ({@link OffsetEncoding#CompressedEnvelope}) which records the
+ * codec's {@link #getId() id}, so codecs can be added without changing the encodings. Besides the built in codecs,
+ * implementations are discovered with {@link java.util.ServiceLoader} - every member of the consumer group must have
+ * the same codecs available, or offset maps compressed with a missing codec can't be read.
+ * <p>
+ * Implementations must be thread safe. Offset maps are small, and compressed on every commit, so implementations
+ * should reuse their buffers and native contexts where they can.
+ *
+ * @see OffsetMapCompressionCodecs
+ */
+public interface OffsetMapCompressionCodec {
+
+    /**
+     * Identifies the codec in the envelope - must be unique, and must never change once offset maps compressed with it
+     * have been committed. Printable ASCII ids are reserved for the built in codecs.
+     */
+    byte getId();
+
+    /**
+     * Inputs smaller than this aren't compressed with this codec - e.g. where it's not worth the cost, or another codec
+     * would do better
+     */
+    default int getMinimumInputLength() {
+        return 0;
+    }
+
+    /**
+     * @return the most bytes {@link #compress} can write for an input of this length
+     */
+    int maxCompressedLength(int inputLength);
+
+    /**
+     * @param output has at least {@link #maxCompressedLength} bytes free from the offset
+     * @return the number of bytes written to the output
+     */
+    int compress(byte[] input, byte[] output, int outputOffset);
+
+    /**
+     * @param output sized to exactly the original length of the input
+     */
+    void decompress(byte[] input, int inputOffset, int inputLength, byte[] output);
+}
@@ -0,0 +1,168 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static io.confluent.csid.utils.StringUtils.msg;
+import static io.confluent.parallelconsumer.OffsetDeltaVarInt.readVarInt;
+import static io.confluent.parallelconsumer.OffsetDeltaVarInt.writeVarInt;
+import static io.confluent.parallelconsumer.OffsetEncoding.CompressedEnvelope;
+
+/**
+ * The available {@link OffsetMapCompressionCodec}s, and the {@link OffsetEncoding#CompressedEnvelope} format:
+ * <ul>
+ * <li>byte1: magic of the encoding which was compressed
+ * <li>byte2: {@link OffsetMapCompressionCodec#getId() codec id}
+ * <li>varint: uncompressed length
+ * <li>byte n: the compressed encoding
+ * </ul>
+ * Codecs are tried in order - {@link Lz4Codec} if LZ4 is on the classpath, then {@link ZstdDictionaryCodec}, then any
+ * discovered with {@link ServiceLoader} - skipping those whose minimum input length isn't met, and stopping once a
+ * result is {@link OffsetSimultaneousEncoder#LARGE_INPUT_MAP_SIZE_THRESHOLD small enough}. The smallest result is
+ * used.
+ */
+@Slf4j
+@UtilityClass
+class OffsetMapCompressionCodecs {
+
+    private static final int MAX_HEADER_LENGTH = Byte.BYTES + Byte.BYTES + 5; // max varint length of an int
+
+    /**
+     * The uncompressed length is read from the commit metadata, which can't be trusted, so it's checked against this
+     * before allocating. A bitset this long covers over 500 million offsets (and a delta varint millions of incomplete
+     * ones) - far more than are ever tracked beyond a committed offset - so anything longer is corrupt.
+     */
+    static final int MAX_DECOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    @Getter
+    private static final List<OffsetMapCompressionCodec> codecs = loadCodecs();
+
+    private static final Map<Byte, OffsetMapCompressionCodec> codecsById = indexCodecs(codecs);
+
+    /**
+     * Compressing into a buffer bigger than this allocates one just for the call, so the buffers kept by threads stay
+     * small - larger offset maps are rare, and their compression costs more than the allocation anyway
+     */
+    static final int MAX_SCRATCH_LENGTH = 64 * 1024;
+
+    /**
+     * Reused for compressing, sized for the largest input seen on the thread, up to {@link #MAX_SCRATCH_LENGTH}
+     */
+    private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[0]);
+
+    private static List<OffsetMapCompressionCodec> loadCodecs() {
+        List<OffsetMapCompressionCodec> loaded = new ArrayList<>();
+        if (isOnClasspath(Lz4Codec.LZ4_CLASS)) {
+            loaded.add(new Lz4Codec());
+        } else {
+            log.debug("LZ4 not on the classpath, offset maps won't be compressed with it");
+        }
+        loaded.add(new ZstdDictionaryCodec());
+        for (OffsetMapCompressionCodec codec : ServiceLoader.load(OffsetMapCompressionCodec.class)) {
+            log.info("Found offset map compression codec {} (id {})", codec.getClass().getName(), codec.getId());
+            loaded.add(codec);
+        }
+        return Collections.unmodifiableList(loaded);
+    }
+
+    private static Map<Byte, OffsetMapCompressionCodec> indexCodecs(List<OffsetMapCompressionCodec> codecs) {
+        Map<Byte, OffsetMapCompressionCodec> byId = new HashMap<>();
+        for (OffsetMapCompressionCodec codec : codecs) {
+            OffsetMapCompressionCodec clash = byId.put(codec.getId(), codec);
+            if (clash != null) {
+                throw new IllegalArgumentException(msg("Offset map compression codecs {} and {} have the same id {}",
+                        clash.getClass().getName(), codec.getClass().getName(), codec.getId()));
+            }
+        }
+        return byId;
+    }
+
+    private static boolean isOnClasspath(String className) {
+        try {
+            Class.forName(className, false, OffsetMapCompressionCodecs.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the smallest envelope of the encoded bytes, or empty if no codec was used
+     */
+    static Optional<byte[]> compress(OffsetEncoding encoding, byte[] encoded) {
+        byte[] best = null;
+        for (OffsetMapCompressionCodec codec : codecs) {
+            if (encoded.length < codec.getMinimumInputLength()) {
+                continue;
+            }
+            byte[] envelope = compress(codec, encoding, encoded);
+            if (best == null || envelope.length < best.length) {
+                best = envelope;
+            }
+            if (best.length <= OffsetSimultaneousEncoder.LARGE_INPUT_MAP_SIZE_THRESHOLD) {
+                break;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    static byte[] compress(OffsetMapCompressionCodec codec, OffsetEncoding encoding, byte[] encoded) {
+        int maxLength = MAX_HEADER_LENGTH + codec.maxCompressedLength(encoded.length);
+        byte[] buffer = scratch.get();
+        if (buffer.length < maxLength) {
+            buffer = new byte[maxLength];
+            if (maxLength <= MAX_SCRATCH_LENGTH) {
+                scratch.set(buffer);
+            }
+        }
+        buffer[0] = encoding.getMagicByte();
+        buffer[1] = codec.getId();
+        int headerLength = writeVarInt(buffer, 2, encoded.length);
+        int compressedLength = codec.compress(encoded, buffer, headerLength);
+        return Arrays.copyOf(buffer, headerLength + compressedLength);
+    }
+
+    /**
+     * @param envelope the data of a {@link OffsetEncoding#CompressedEnvelope}
+     * @return the decompressed encoding
+     * @throws OffsetDecodingError if the envelope is corrupt, or its codec isn't available
+     */
+    static EncodedOffsetPair decompress(ByteBuffer envelope) throws OffsetDecodingError {
+        try {
+            envelope.rewind();
+            OffsetEncoding encoding = OffsetEncoding.decode(envelope.get());
+            if (encoding == CompressedEnvelope) {
+                throw new OffsetDecodingError("Nested compressed envelope");
+            }
+            byte id = envelope.get();
+            OffsetMapCompressionCodec codec = codecsById.get(id);
+            if (codec == null) {
+                throw new OffsetDecodingError(msg("Offset map compressed with unknown codec {} - is it missing from the classpath?", id));
+            }
+            int length = readVarInt(envelope);
+            if (length < 0 || length > MAX_DECOMPRESSED_LENGTH) {
+                throw new OffsetDecodingError(msg("Compressed envelope length {} out of range (0 to {})", length, MAX_DECOMPRESSED_LENGTH));
+            }
+            byte[] decompressed = new byte[length];
+            if (envelope.hasArray()) {
+                codec.decompress(envelope.array(), envelope.arrayOffset() + envelope.position(), envelope.remaining(), decompressed);
+            } else {
+                byte[] compressed = new byte[envelope.remaining()];
+                envelope.get(compressed);
+                codec.decompress(compressed, 0, compressed.length, decompressed);
+            }
+            return new EncodedOffsetPair(encoding, ByteBuffer.wrap(decompressed));
+        } catch (RuntimeException e) {
+            // codecs, and reading past the end of the envelope, fail in their own ways
+            throw new OffsetDecodingError("Error decompressing offset map envelope", e);
+        }
+    }
+}
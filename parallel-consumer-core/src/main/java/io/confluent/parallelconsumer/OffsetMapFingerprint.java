@@ -0,0 +1,55 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Data;
+
+/**
+ * A cheap summary of the state an offset map is encoded from, so an unchanged partition's last encoded offset map can
+ * be reused, instead of encoding it again on every commit - e.g. while a partition is held up by a single stuck
+ * record.
+ * <p>
+ * The incomplete offsets in the encoded range are summarised by their count and a 64 bit hash, so computing it is a
+ * single pass over them, with no allocation.
+ *
+ * @see WorkManager#findCompletedEligibleOffsetsAndRemove
+ */
+@Data
+class OffsetMapFingerprint {
+
+    private final long baseOffset;
+
+    private final long nextExpectedOffset;
+
+    private final int incompleteCount;
+
+    private final long incompleteHash;
+
+    /**
+     * @param incompleteOffsets in order - only those from the base offset up to the next expected offset are included,
+     *                          as only those are encoded
+     */
+    static OffsetMapFingerprint of(long baseOffset, long nextExpectedOffset, Iterable<Long> incompleteOffsets) {
+        int count = 0;
+        long hash = 1;
+        for (long offset : incompleteOffsets) {
+            if (offset >= baseOffset && offset < nextExpectedOffset) {
+                count++;
+                hash = hash * 31 + mix(offset);
+            }
+        }
+        return new OffsetMapFingerprint(baseOffset, nextExpectedOffset, count, hash);
+    }
+
+    /**
+     * SplitMix64 finaliser - spreads the bits of nearby offsets, so different sets of offsets don't collide
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
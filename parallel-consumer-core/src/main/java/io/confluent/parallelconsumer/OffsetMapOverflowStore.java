@@ -0,0 +1,56 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Optional;
+
+/**
+ * Storage for offset maps which don't fit in the commit metadata.
+ * <p>
+ * When the encoded offset map of a partition is too large for the metadata limit ({@link
+ * OffsetMapCodecManager#DefaultMaxMetadataSize}), it's put into the store instead, and the commit metadata for that
+ * partition only carries a short reference to it. Without a store, the offset map would be dropped, and all the
+ * completed records above the committed offset would be replayed on rebalance or restart.
+ * <p>
+ * Implementations must be thread safe, and the store must be shared by all members of the consumer group, if
+ * partitions are to move between them without replay - e.g. a compacted topic, a database, or a shared file system.
+ *
+ * @see FileOffsetMapOverflowStore
+ * @see ParallelConsumerOptions#getOffsetMapOverflowStore()
+ */
+public interface OffsetMapOverflowStore {
+
+    /**
+     * Store an encoded offset map.
+     * <p>
+     * A payload must stay loadable until {@link #onCommitted} is called for a later commit of its partition, as the
+     * commit it's stored for may fail, leaving the previous one in place.
+     *
+     * @param committedOffset the offset being committed along with the offset map
+     * @return a short reference to the stored payload, which can be used to load it
+     */
+    String store(TopicPartition tp, long committedOffset, String payload) throws Exception;
+
+    /**
+     * @return the payload stored under the reference, or empty if it's not available
+     */
+    Optional<String> load(TopicPartition tp, String reference) throws Exception;
+
+    /**
+     * A commit for the partition has succeeded - payloads stored for it before the committed one are no longer needed.
+     * <p>
+     * Commits can be pipelined, so payloads stored after the committed one may belong to commits still in flight, and
+     * must be kept.
+     *
+     * @param committedOffset the offset committed for the partition
+     * @param reference       the reference committed for the partition, or empty if its offset map was committed
+     *                        directly
+     */
+    default void onCommitted(TopicPartition tp, long committedOffset, Optional<String> reference) {
+        // no-op
+    }
+}
@@ -21,6 +21,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.LongStream;
 
 import static io.confluent.parallelconsumer.OffsetEncoding.BitSet;
 import static io.confluent.parallelconsumer.OffsetEncoding.BitSetV2;
@@ -77,12 +78,12 @@ public class OffsetRunLength {
     /**
      * @see #runLengthEncode
      */
-    static Tuple<Long, Set<Long>> runLengthDecodeToIncompletes(OffsetEncoding encoding, final long baseOffset, final ByteBuffer in) {
+    static Tuple<Long, long[]> runLengthDecodeToIncompletes(OffsetEncoding encoding, final long baseOffset, final ByteBuffer in) {
         in.rewind();
         final ShortBuffer v1ShortBuffer = in.asShortBuffer();
         final IntBuffer v2IntegerBuffer = in.asIntBuffer();
 
-        final var incompletes = new HashSet<Long>(1); // we don't know the capacity yet
+        final LongStream.Builder incompletes = LongStream.builder(); // we don't know the capacity yet
 
         long highestWatermarkSeen = 0L;
 
@@ -138,7 +139,7 @@ public class OffsetRunLength {
             }
             currentRunlengthIsComplete = !currentRunlengthIsComplete; // toggle
         }
-        return Tuple.pairOf(highestWatermarkSeen, incompletes);
+        return Tuple.pairOf(highestWatermarkSeen, incompletes.build().toArray());
     }
 
     static List<Integer> runLengthDeserialise(final ByteBuffer in) {
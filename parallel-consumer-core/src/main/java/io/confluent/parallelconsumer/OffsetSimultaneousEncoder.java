@@ -9,8 +9,10 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
-import static io.confluent.csid.utils.Range.range;
+import static io.confluent.csid.utils.StringUtils.msg;
+import static io.confluent.parallelconsumer.OffsetEncoding.*;
 import static io.confluent.parallelconsumer.OffsetEncoding.Version.v1;
 import static io.confluent.parallelconsumer.OffsetEncoding.Version.v2;
 
@@ -73,6 +75,29 @@ class OffsetSimultaneousEncoder {
      */
     static boolean compressionForced = false;
 
+    /**
+     * How often the runner up in the predicted encoding sizes is also run, as a check on the prediction
+     *
+     * @see #predictEncodedSizes()
+     */
+    static final int PREDICTION_VALIDATION_INTERVAL = 16;
+
+    private static final AtomicLong encodeCount = new AtomicLong();
+
+    /**
+     * Run every encoder, instead of only the one predicted to be smallest
+     *
+     * @see #withAllEncoders()
+     */
+    private boolean allEncoders = false;
+
+    /**
+     * The positions of the incomplete offsets in the range, in order
+     *
+     * @see #getSortedIncompleteIndexes()
+     */
+    private int[] sortedIncompleteIndexes;
+
     /**
      * The encoders to run
      */
@@ -87,8 +112,15 @@ class OffsetSimultaneousEncoder {
         length = (int) longLength;
         // sanity
         if (longLength != length) throw new IllegalArgumentException("Integer overflow");
+    }
 
-        initEncoders();
+    /**
+     * Run every encoder, instead of only the one predicted to be the smallest - e.g. when a specific encoding is to be
+     * used. Also the case when {@link #compressionForced}.
+     */
+    OffsetSimultaneousEncoder withAllEncoders() {
+        this.allEncoders = true;
+        return this;
     }
 
     private void initEncoders() {
@@ -96,20 +128,98 @@ class OffsetSimultaneousEncoder {
             log.debug("~Large input map size: {} (start: {} end: {})", length, lowWaterMark, nextExpectedOffset);
         }
 
-        try {
-            encoders.add(new BitsetEncoder(length, this, v1));
-        } catch (BitSetEncodingNotSupportedException a) {
-            log.warn("Cannot use {} encoder ({})", BitsetEncoder.class.getSimpleName(), a.getMessage());
+        if (allEncoders || compressionForced) {
+            initEncoder(BitSet);
+            initEncoder(BitSetV2);
+            initEncoder(RunLength);
+            initEncoder(RunLengthV2);
+            initEncoder(DeltaVarInt);
+            return;
         }
 
+        List<OffsetEncoding> predicted = predictEncodedSizes();
+        initEncoder(predicted.get(0));
+        boolean validate = encodeCount.incrementAndGet() % PREDICTION_VALIDATION_INTERVAL == 0;
+        if (validate && predicted.size() > 1) {
+            log.trace("Also running {} to validate prediction of {}", predicted.get(1), predicted.get(0));
+            initEncoder(predicted.get(1));
+        }
+    }
+
+    private void initEncoder(OffsetEncoding encoding) {
         try {
-            encoders.add(new BitsetEncoder(length, this, v2));
+            switch (encoding) {
+                case BitSet -> encoders.add(new BitsetEncoder(length, this, v1));
+                case BitSetV2 -> encoders.add(new BitsetEncoder(length, this, v2));
+                case RunLength -> encoders.add(new RunLengthEncoder(this, v1));
+                case RunLengthV2 -> encoders.add(new RunLengthEncoder(this, v2));
+                case DeltaVarInt -> encoders.add(new DeltaVarIntEncoder(length, this));
+                default -> throw new IllegalArgumentException(msg("Not an uncompressed encoding: {}", encoding));
+            }
         } catch (BitSetEncodingNotSupportedException a) {
             log.warn("Cannot use {} encoder ({})", BitsetEncoder.class.getSimpleName(), a.getMessage());
         }
+    }
+
+    /**
+     * A cheap cost model of the uncompressed encoded sizes, from the number of incomplete offsets and runs of them in
+     * the range - without scanning the range. Encodings which might not support the range (i.e. the v1 encodings,
+     * limited to Short lengths) aren't candidates unless the whole range fits.
+     *
+     * @return the candidate encodings, predicted smallest first
+     */
+    List<OffsetEncoding> predictEncodedSizes() {
+        int[] incompleteIndexes = getSortedIncompleteIndexes();
+        int incompleteCount = incompleteIndexes.length;
+        int incompleteRuns = 0;
+        for (int i = 0; i < incompleteCount; i++) {
+            if (i == 0 || incompleteIndexes[i] != incompleteIndexes[i - 1] + 1) {
+                incompleteRuns++;
+            }
+        }
+
+        // runs alternate between incomplete and complete, always starting with an incomplete one
+        long runLengthEntries = 2L * incompleteRuns + 1;
+        long bitSetBytes = length / 8 + 1;
+        int averageGapBytes = varIntSize(length / Math.max(1, incompleteRuns));
+        long deltaVarIntBytes = varIntSize(length) + (incompleteCount - incompleteRuns) + (long) incompleteRuns * averageGapBytes;
+
+        Map<OffsetEncoding, Long> predictedSizes = new EnumMap<>(OffsetEncoding.class);
+        if (length <= Short.MAX_VALUE) {
+            predictedSizes.put(BitSet, Short.BYTES + bitSetBytes);
+            predictedSizes.put(RunLength, Short.BYTES * runLengthEntries);
+        }
+        predictedSizes.put(BitSetV2, Integer.BYTES + bitSetBytes);
+        predictedSizes.put(RunLengthV2, Integer.BYTES * runLengthEntries);
+        predictedSizes.put(DeltaVarInt, deltaVarIntBytes);
+        log.trace("Predicted encoding sizes: {} (incompletes: {}, runs: {}, length: {})", predictedSizes, incompleteCount, incompleteRuns, length);
+
+        List<OffsetEncoding> candidates = new ArrayList<>(predictedSizes.keySet());
+        candidates.sort(Comparator.comparing(predictedSizes::get));
+        return candidates;
+    }
 
-        encoders.add(new RunLengthEncoder(this, v1));
-        encoders.add(new RunLengthEncoder(this, v2));
+    /**
+     * The incompletes can be in any order, and can include offsets outside of the range being encoded
+     */
+    private int[] getSortedIncompleteIndexes() {
+        if (sortedIncompleteIndexes == null) {
+            sortedIncompleteIndexes = incompleteOffsets.stream()
+                    .mapToLong(Long::longValue)
+                    .filter(offset -> offset >= lowWaterMark && offset < nextExpectedOffset)
+                    .mapToInt(offset -> (int) (offset - lowWaterMark))
+                    .sorted()
+                    .toArray();
+        }
+        return sortedIncompleteIndexes;
+    }
+
+    private static int varIntSize(int value) {
+        int bytes = 1;
+        while ((value >>>= 7) != 0) {
+            bytes++;
+        }
+        return bytes;
     }
 
     /**
@@ -125,15 +235,17 @@ class OffsetSimultaneousEncoder {
      * Highwater mark already encoded in string - {@link OffsetMapCodecManager#makeOffsetMetadataPayload} - so encoding
      * BitSet run length may not be needed, or could be swapped
      * <p/>
-     * Simultaneously encodes:
+     * Unless {@link #withAllEncoders() all encoders are requested}, only runs the encoder predicted to be the smallest
+     * by {@link #predictEncodedSizes()} (and periodically the runner up too, as a check), otherwise simultaneously
+     * encodes:
      * <ul>
      * <li>{@link OffsetEncoding#BitSet}</li>
      * <li>{@link OffsetEncoding#RunLength}</li>
+     * <li>{@link OffsetEncoding#DeltaVarInt}</li>
      * </ul>
-     * Conditionaly encodes compression variants:
+     * Conditionaly encodes a compressed variant, with the {@link OffsetMapCompressionCodec}s:
      * <ul>
-     * <li>{@link OffsetEncoding#BitSetCompressed}</li>
-     * <li>{@link OffsetEncoding#RunLengthCompressed}</li>
+     * <li>{@link OffsetEncoding#CompressedEnvelope}</li>
      * </ul>
      * Currently commented out is {@link OffsetEncoding#ByteArray} as there doesn't seem to be an advantage over
      * BitSet encoding.
@@ -143,44 +255,59 @@ class OffsetSimultaneousEncoder {
      * TODO: optimisation - could double the run-length range from Short.MAX_VALUE (~33,000) to Short.MAX_VALUE * 2
      *  (~66,000) by using unsigned shorts instead (higest representable relative offset is Short.MAX_VALUE because each
      *  runlength entry is a Short)
-     * <p>
-     *  TODO VERY large offests ranges are slow (Integer.MAX_VALUE) - encoding scans could be avoided if passing in map of incompletes which should already be known
      */
     public OffsetSimultaneousEncoder invoke() {
         log.debug("Starting encode of incompletes, base offset is: {}, end offset is: {}", lowWaterMark, nextExpectedOffset);
         log.trace("Incompletes are: {}", this.incompleteOffsets);
 
+        initEncoders();
+
         //
         log.debug("Encode loop offset start,end: [{},{}] length: {}", this.lowWaterMark, this.nextExpectedOffset, length);
-        /*
-         * todo refactor this loop into the encoders (or sequential vs non sequential encoders) as RunLength doesn't need
-         *  to look at every offset in the range, only the ones that change from 0 to 1. BitSet however needs to iterate
-         *  the entire range. So when BitSet can't be used, the encoding would be potentially a lot faster as RunLength
-         *  didn't need the whole loop.
-         */
-        range(length).forEach(rangeIndex -> {
-            final long offset = this.lowWaterMark + rangeIndex;
-            List<OffsetEncoder> removeToBeRemoved = new ArrayList<>();
-            if (this.incompleteOffsets.contains(offset)) {
-                log.trace("Found an incomplete offset {}", offset);
-                encoders.forEach(x -> {
-                    x.encodeIncompleteOffset(rangeIndex);
-                });
-            } else {
-                encoders.forEach(x -> {
-                    x.encodeCompletedOffset(rangeIndex);
-                });
+        // walk the runs of incompletes, and the completed gaps between them, encoding each run in bulk - so the cost
+        // depends on the number of runs, not the length of the range
+        int[] incompleteIndexes = getSortedIncompleteIndexes();
+        int position = 0;
+        int i = 0;
+        while (i < incompleteIndexes.length) {
+            int runStart = incompleteIndexes[i];
+            int runEnd = runStart + 1;
+            i++;
+            while (i < incompleteIndexes.length && incompleteIndexes[i] == runEnd) {
+                runEnd++;
+                i++;
+            }
+            if (runStart > position) {
+                encodeCompletedRun(position, runStart);
             }
-            encoders.removeAll(removeToBeRemoved);
-        });
+            log.trace("Found incomplete offsets {} to {}", lowWaterMark + runStart, lowWaterMark + runEnd - 1);
+            for (OffsetEncoder encoder : encoders) {
+                encoder.encodeIncompleteOffsets(runStart, runEnd);
+            }
+            position = runEnd;
+        }
+        if (position < length) {
+            encodeCompletedRun(position, length);
+        }
 
         registerEncodings(encoders);
 
+        if (sortedEncodings.isEmpty() && !allEncoders) {
+            log.debug("Predicted encoding(s) not supported for this range, falling back to running all encoders");
+            return withAllEncoders().invoke();
+        }
+
         log.debug("In order: {}", this.sortedEncodings);
 
         return this;
     }
 
+    private void encodeCompletedRun(int fromRangeIndex, int toRangeIndex) {
+        for (OffsetEncoder encoder : encoders) {
+            encoder.encodeCompletedOffsets(fromRangeIndex, toRangeIndex);
+        }
+    }
+
     private void registerEncodings(final Set<? extends OffsetEncoder> encoders) {
         List<OffsetEncoder> toRemove = new ArrayList<>();
         for (OffsetEncoder encoder : encoders) {
@@ -197,6 +324,10 @@ class OffsetSimultaneousEncoder {
         // sizes over LARGE_INPUT_MAP_SIZE_THRESHOLD bytes seem to benefit from compression
         boolean noEncodingsAreSmallEnough = encoders.stream().noneMatch(OffsetEncoder::quiteSmall);
         if (noEncodingsAreSmallEnough || compressionForced) {
+            encoders.forEach(OffsetEncoder::registerCodecCompressed);
+        }
+        if (compressionForced) {
+            // the original zstd stream compressed encodings are still read, but are only written for testing
             encoders.forEach(OffsetEncoder::registerCompressed);
         }
     }
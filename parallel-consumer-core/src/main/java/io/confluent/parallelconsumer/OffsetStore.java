@@ -0,0 +1,44 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage for committed offsets and their offset maps, used instead of committing them to Kafka.
+ * <p>
+ * The offsets are stored exactly as they would be committed to Kafka - the {@link OffsetAndMetadata#metadata()} holds
+ * the encoded offset map of incomplete offsets above the committed offset. As the offset maps aren't carried in the
+ * commit metadata, they aren't limited to {@link OffsetMapCodecManager#DefaultMaxMetadataSize}.
+ * <p>
+ * When partitions are assigned, their offsets are loaded from the store, and the consumer is positioned at them.
+ * Partitions without stored offsets start from the consumer's committed position or reset policy as usual.
+ * <p>
+ * Implementations must be thread safe, and the store must be shared by all members of the consumer group, if
+ * partitions are to move between them.
+ *
+ * @see FileOffsetStore
+ * @see JdbcOffsetStore
+ * @see ParallelConsumerOptions#getOffsetStore()
+ */
+public interface OffsetStore {
+
+    /**
+     * Store the offsets - the offsets of all the partitions given should be stored atomically if the store supports it,
+     * otherwise at least each partition must be stored atomically.
+     * <p>
+     * Only returns once the offsets are durably stored - a failure causes the offsets to be committed again later.
+     */
+    void commit(Map<TopicPartition, OffsetAndMetadata> offsets) throws Exception;
+
+    /**
+     * @return the stored offsets for the partitions which have any
+     */
+    Map<TopicPartition, OffsetAndMetadata> load(Set<TopicPartition> partitions) throws Exception;
+}
@@ -9,8 +9,15 @@ import lombok.Getter;
 import lombok.ToString;
 import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.producer.Producer;
+import pl.tlinkowski.unij.api.UniLists;
+import pl.tlinkowski.unij.api.UniMaps;
 
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import static io.confluent.csid.utils.StringUtils.msg;
 import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.TRANSACTIONAL_PRODUCER;
@@ -38,6 +45,77 @@ public class ParallelConsumerOptions<K, V> {
      */
     private final Producer<K, V> producer;
 
+    /**
+     * Optional additional consumers, to run as a pool along side the main {@link #consumer}, for when a single consumer
+     * can't fetch and deserialise records fast enough to keep the processing threads busy.
+     * <p>
+     * Each consumer gets its own broker poller thread, and they all feed the same work queue. They must all be
+     * configured the same way as the main consumer, in particular with the same {@code group.id}, as they join the
+     * consumer group as separate members and share out the assigned partitions between them. Offsets are committed by
+     * the consumer which is assigned the partition.
+     * <p>
+     * Not supported with {@link CommitMode#TRANSACTIONAL_PRODUCER}, as transactions commit offsets through the group
+     * membership of a single consumer.
+     * <p>
+     * If a {@link org.apache.kafka.clients.consumer.ConsumerRebalanceListener} is supplied when subscribing, it will be
+     * called for rebalances of every consumer in the pool, potentially concurrently.
+     */
+    @Builder.Default
+    private final List<Consumer<K, V>> additionalConsumers = UniLists.of();
+
+    /**
+     * Optional additional transactional producers, to run as a pool along side the main {@link #producer} in {@link
+     * CommitMode#TRANSACTIONAL_PRODUCER} mode, for when a single transaction can't keep up with the total throughput.
+     * <p>
+     * Each producer owns a subset of the input partitions - records produced while processing a partition are sent
+     * through its owner, and its offsets are committed in its owner's transactions. The transactions of the pool are
+     * smaller, and are committed in parallel. Each producer must have it's own {@code transactional.id}.
+     */
+    @Builder.Default
+    private final List<Producer<K, V>> additionalProducers = UniLists.of();
+
+    /**
+     * Optional storage for offset maps which are too large to fit in the commit metadata. If not supplied, such offset
+     * maps are dropped, and the completed records they track will be replayed upon rebalance or restart.
+     *
+     * @see FileOffsetMapOverflowStore
+     */
+    private final OffsetMapOverflowStore offsetMapOverflowStore;
+
+    /**
+     * Optional storage for committed offsets and their offset maps, used instead of committing them to Kafka - e.g. a
+     * database, so offsets can be stored alongside the results of processing. Offset maps stored this way aren't
+     * limited in size by the commit metadata.
+     * <p>
+     * Can't be used with {@link CommitMode#TRANSACTIONAL_PRODUCER}, where offsets are committed in the producer's
+     * transactions. As nothing is committed to Kafka, tools monitoring consumer group lag won't see any progress.
+     *
+     * @see FileOffsetStore
+     * @see JdbcOffsetStore
+     */
+    private final OffsetStore offsetStore;
+
+    /**
+     * How offset maps are packed into the text of the commit metadata.
+     */
+    public enum OffsetMapTextEncoding {
+        /**
+         * Standard base64, six bits per character. Readable by all versions.
+         */
+        BASE64,
+        /**
+         * Fifteen bits per character, using a block of Unicode code points - as the broker limits the metadata's
+         * length in characters rather than bytes, two and a half times as much offset map fits into it. Serialised as
+         * UTF-8 it takes slightly more bytes than base64.
+         * <p>
+         * Only readable by versions which support it, so all members of the consumer group must be upgraded before
+         * enabling it. Either encoding is read, regardless of this setting.
+         *
+         * @see OffsetDenseText
+         */
+        DENSE
+    }
+
     /**
      * The ordering guarantee to use.
      */
@@ -94,6 +172,12 @@ public class ParallelConsumerOptions<K, V> {
     @Builder.Default
     private final CommitMode commitMode = CommitMode.CONSUMER_ASYNCHRONOUS;
 
+    /**
+     * How offset maps are packed into the commit metadata
+     */
+    @Builder.Default
+    private final OffsetMapTextEncoding offsetMapTextEncoding = OffsetMapTextEncoding.BASE64;
+
     /**
      * Total max number of messages to process beyond the base committed offsets.
      * <p>
@@ -132,19 +216,186 @@ public class ParallelConsumerOptions<K, V> {
     @Builder.Default
     private final int numberOfThreads = 16;
 
+    /**
+     * Maximum number of records per second, across all partitions, that will be handed to the user function. Zero (the
+     * default) means no limit.
+     * <p>
+     * Useful for respecting downstream quotas (e.g. a third party API), while still processing with high concurrency.
+     * Records over the rate stay queued, they don't block processing threads.
+     * <p>
+     * Limits allow a burst of up to one seconds worth of records.
+     */
+    @Builder.Default
+    private final int maxRecordsPerSecond = 0;
+
+    /**
+     * Maximum number of records per second, per topic, that will be handed to the user function. Topics not in the map
+     * are not limited.
+     *
+     * @see #maxRecordsPerSecond
+     */
+    @Builder.Default
+    private final Map<String, Integer> maxRecordsPerSecondPerTopic = UniMaps.of();
+
+    /**
+     * Maximum number of records per second that will be handed to the user function for each shard - i.e. per key when
+     * using {@link ProcessingOrder#KEY} ordering, otherwise per partition. Zero (the default) means no limit.
+     *
+     * @see #maxRecordsPerSecond
+     */
+    @Builder.Default
+    private final int maxRecordsPerSecondPerShard = 0;
+
+    /**
+     * Failure rate percentage (1-100) of the user function, over the {@link #circuitBreakerWindowSize most recent
+     * results}, at which a circuit breaker opens. Zero (the default) disables the circuit breaker.
+     * <p>
+     * While open, no work is dispatched and polling the broker is paused. After {@link #circuitBreakerOpenDuration} a
+     * limited number of {@link #circuitBreakerHalfOpenProbes probes} are sent to test if the downstream has recovered.
+     * If they all succeed the breaker closes and normal processing resumes, otherwise it opens again.
+     */
+    @Builder.Default
+    private final int circuitBreakerFailureRateThreshold = 0;
+
+    /**
+     * The number of most recent results the failure rate is calculated over.
+     *
+     * @see #circuitBreakerFailureRateThreshold
+     */
+    @Builder.Default
+    private final int circuitBreakerWindowSize = 100;
+
+    /**
+     * The minimum number of results needed in the window, before the circuit breaker can open.
+     *
+     * @see #circuitBreakerFailureRateThreshold
+     */
+    @Builder.Default
+    private final int circuitBreakerMinimumCalls = 20;
+
+    /**
+     * How long the circuit breaker stays open, before sending probes.
+     *
+     * @see #circuitBreakerFailureRateThreshold
+     */
+    @Builder.Default
+    private final Duration circuitBreakerOpenDuration = Duration.ofSeconds(30);
+
+    /**
+     * The maximum number of records to dispatch as probes when half open, all of which must succeed for the circuit
+     * breaker to close. If fewer records are available, the breaker closes once those that were dispatched succeed.
+     *
+     * @see #circuitBreakerFailureRateThreshold
+     */
+    @Builder.Default
+    private final int circuitBreakerHalfOpenProbes = 5;
+
+    /**
+     * Commit early, without waiting for the commit interval, once this many records have been completed since the last
+     * commit. Zero (the default) disables this trigger.
+     * <p>
+     * Commits are otherwise made when the commit interval ({@link ParallelEoSStreamProcessor#getTimeBetweenCommits()})
+     * has elapsed, but only if progress has been made - and only for the partitions which have made progress.
+     */
+    @Builder.Default
+    private final int commitAfterRecordsCompleted = 0;
+
+    /**
+     * Commit early, without waiting for the commit interval, once the committable offset of any partition has advanced
+     * this far beyond its last commit. Zero (the default) disables this trigger.
+     *
+     * @see #commitAfterRecordsCompleted
+     */
+    @Builder.Default
+    private final int commitAfterOffsetAdvance = 0;
+
     public void validate() {
         Objects.requireNonNull(consumer, "A consumer must be supplied");
 
+        if (isUsingConsumerPool()) {
+            if (isUsingTransactionalProducer()) {
+                throw new IllegalArgumentException(msg("A pool of consumers cannot be used with {} commit mode", commitMode));
+            }
+            if (additionalConsumers.contains(null) || additionalConsumers.contains(consumer)) {
+                throw new IllegalArgumentException("Additional consumers must be non null, and separate instances from the main consumer");
+            }
+        }
+
         if (isUsingTransactionalProducer() && producer == null) {
             throw new IllegalArgumentException(msg("Wanting to use Transaction Producer mode ({}) without supplying a Producer instance",
                     commitMode));
         }
+
+        if (isUsingProducerPool()) {
+            if (!isUsingTransactionalProducer()) {
+                throw new IllegalArgumentException(msg("A pool of producers can only be used with {} commit mode, not {}",
+                        TRANSACTIONAL_PRODUCER, commitMode));
+            }
+            if (additionalProducers.contains(null) || additionalProducers.contains(producer)
+                    || new HashSet<>(additionalProducers).size() != additionalProducers.size()) {
+                throw new IllegalArgumentException("Additional producers must be non null, and separate instances from each other and the main producer");
+            }
+        }
+
+        if (maxRecordsPerSecond < 0 || maxRecordsPerSecondPerShard < 0) {
+            throw new IllegalArgumentException(msg("Rate limits cannot be negative (global: {}, per shard: {})",
+                    maxRecordsPerSecond, maxRecordsPerSecondPerShard));
+        }
+        if (circuitBreakerFailureRateThreshold < 0 || circuitBreakerFailureRateThreshold > 100) {
+            throw new IllegalArgumentException(msg("Circuit breaker failure rate threshold must be a percentage between 0 and 100, was {}",
+                    circuitBreakerFailureRateThreshold));
+        }
+        if (circuitBreakerFailureRateThreshold > 0 && (circuitBreakerWindowSize < 1 || circuitBreakerHalfOpenProbes < 1)) {
+            throw new IllegalArgumentException(msg("Circuit breaker window size ({}) and half open probes ({}) must be positive",
+                    circuitBreakerWindowSize, circuitBreakerHalfOpenProbes));
+        }
+
+        if (commitAfterRecordsCompleted < 0 || commitAfterOffsetAdvance < 0) {
+            throw new IllegalArgumentException(msg("Commit progress thresholds cannot be negative (records completed: {}, offset advance: {})",
+                    commitAfterRecordsCompleted, commitAfterOffsetAdvance));
+        }
+
+        if (isUsingOffsetStore()) {
+            if (isUsingTransactionalProducer()) {
+                throw new IllegalArgumentException(msg("An offset store cannot be used with {} commit mode, as offsets are committed in the producer's transactions",
+                        commitMode));
+            }
+            if (offsetMapOverflowStore != null) {
+                throw new IllegalArgumentException("An offset map overflow store isn't used with an offset store, as offset maps in the offset store aren't limited in size");
+            }
+        }
+
+        maxRecordsPerSecondPerTopic.forEach((topic, rate) -> {
+            if (rate == null || rate <= 0) {
+                throw new IllegalArgumentException(msg("Rate limit for topic {} must be positive, was {}", topic, rate));
+            }
+        });
     }
 
     protected boolean isUsingTransactionalProducer() {
         return commitMode.equals(TRANSACTIONAL_PRODUCER);
     }
 
+    public boolean isUsingConsumerPool() {
+        return !additionalConsumers.isEmpty();
+    }
+
+    public boolean isUsingProducerPool() {
+        return !additionalProducers.isEmpty();
+    }
+
+    public Optional<OffsetMapOverflowStore> getOffsetMapOverflowStore() {
+        return Optional.ofNullable(offsetMapOverflowStore);
+    }
+
+    public Optional<OffsetStore> getOffsetStore() {
+        return Optional.ofNullable(offsetStore);
+    }
+
+    public boolean isUsingOffsetStore() {
+        return offsetStore != null;
+    }
+
     public boolean isProducerSupplied() {
         return getProducer() != null;
     }
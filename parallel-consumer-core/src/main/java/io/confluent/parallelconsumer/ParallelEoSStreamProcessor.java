@@ -22,6 +22,7 @@ import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
@@ -42,6 +43,12 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 @Slf4j
 public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor<K, V>, ConsumerRebalanceListener, Closeable {
 
+    /**
+     * Work from the produce flows, which is completed by the producer's send callbacks, rather than when the user
+     * function returns
+     */
+    private static final String PRODUCE_TYPE = "produce-type";
+
     private final ParallelConsumerOptions options;
 
     /**
@@ -58,6 +65,11 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
     private final Optional<ProducerManager<K, V>> producerManager;
 
+    /**
+     * If using a pool of transactional producers, includes the main {@link #producerManager}
+     */
+    private final Optional<ProducerPool<K, V>> producerPool;
+
     private final org.apache.kafka.clients.consumer.Consumer<K, V> consumer;
 
     /**
@@ -77,6 +89,12 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
     private final BrokerPollSystem<K, V> brokerPollSubsystem;
 
+    /**
+     * Poll systems for the {@link ParallelConsumerOptions#getAdditionalConsumers() additional consumers} in the pool,
+     * mapped to their consumer
+     */
+    private final Map<org.apache.kafka.clients.consumer.Consumer<K, V>, BrokerPollSystem<K, V>> pooledBrokerPollSystems = new LinkedHashMap<>();
+
     /**
      * Useful for testing async code
      */
@@ -164,6 +182,12 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         checkNotSubscribed(consumer);
         checkAutoCommitIsDisabled(consumer);
 
+        List<org.apache.kafka.clients.consumer.Consumer<K, V>> additionalConsumers = options.getAdditionalConsumers();
+        for (var additionalConsumer : additionalConsumers) {
+            checkNotSubscribed(additionalConsumer);
+            checkAutoCommitIsDisabled(additionalConsumer);
+        }
+
         this.workerPool = Executors.newFixedThreadPool(newOptions.getNumberOfThreads());
 
         this.wm = new WorkManager<>(newOptions, consumer);
@@ -172,18 +196,48 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
         this.brokerPollSubsystem = new BrokerPollSystem<>(consumerMgr, wm, this, newOptions);
 
-        if (options.isProducerSupplied()) {
+        for (var additionalConsumer : additionalConsumers) {
+            var pooledPollSystem = new BrokerPollSystem<>(new ConsumerManager<>(additionalConsumer), wm, this, newOptions);
+            pooledBrokerPollSystems.put(additionalConsumer, pooledPollSystem);
+        }
+
+        if (options.isUsingProducerPool()) {
+            ProducerPool<K, V> pool = new ProducerPool<>(consumerMgr, this.wm, options);
+            this.producerPool = Optional.of(pool);
+            this.producerManager = Optional.of(pool.getProducerManagers().get(0));
+            this.committer = pool;
+        } else if (options.isProducerSupplied()) {
+            this.producerPool = Optional.empty();
             this.producerManager = Optional.of(new ProducerManager<>(options.getProducer(), consumerMgr, this.wm, options));
             if (options.isUsingTransactionalProducer())
                 this.committer = this.producerManager.get();
             else
-                this.committer = this.brokerPollSubsystem;
+                this.committer = createConsumerCommitter();
         } else {
+            this.producerPool = Optional.empty();
             this.producerManager = Optional.empty();
-            this.committer = this.brokerPollSubsystem;
+            this.committer = createConsumerCommitter();
+        }
+    }
+
+    /**
+     * When running a pool of consumers, each poll system commits the partitions assigned to its consumer
+     */
+    private OffsetCommitter createConsumerCommitter() {
+        if (pooledBrokerPollSystems.isEmpty()) {
+            return this.brokerPollSubsystem;
+        } else {
+            return () -> getAllBrokerPollSystems().forEach(BrokerPollSystem::retrieveOffsetsAndCommit);
         }
     }
 
+    private List<BrokerPollSystem<K, V>> getAllBrokerPollSystems() {
+        var all = new ArrayList<BrokerPollSystem<K, V>>();
+        all.add(brokerPollSubsystem);
+        all.addAll(pooledBrokerPollSystems.values());
+        return all;
+    }
+
     private void checkNotSubscribed(org.apache.kafka.clients.consumer.Consumer<K, V> consumerToCheck) {
         if (consumerToCheck instanceof MockConsumer)
             // disabled for unit tests which don't test rebalancing
@@ -199,30 +253,33 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     public void subscribe(Collection<String> topics) {
         log.debug("Subscribing to {}", topics);
         consumer.subscribe(topics, this);
+        pooledBrokerPollSystems.forEach((pooled, pollSystem) -> pooled.subscribe(topics, new PooledConsumerRebalanceListener(pooled, pollSystem)));
     }
 
     @Override
     public void subscribe(Pattern pattern) {
         log.debug("Subscribing to {}", pattern);
         consumer.subscribe(pattern, this);
+        pooledBrokerPollSystems.forEach((pooled, pollSystem) -> pooled.subscribe(pattern, new PooledConsumerRebalanceListener(pooled, pollSystem)));
     }
 
     @Override
     public void subscribe(Collection<String> topics, ConsumerRebalanceListener callback) {
-        log.debug("Subscribing to {}", topics);
         usersConsumerRebalanceListener = Optional.of(callback);
-        consumer.subscribe(topics, this);
+        subscribe(topics);
     }
 
     @Override
     public void subscribe(Pattern pattern, ConsumerRebalanceListener callback) {
-        log.debug("Subscribing to {}", pattern);
         usersConsumerRebalanceListener = Optional.of(callback);
-        consumer.subscribe(pattern, this);
+        subscribe(pattern);
     }
 
     /**
-     * Commit our offsets
+     * Commit our offsets for the revoked partitions, and drop their work.
+     * <p>
+     * Work for any retained partitions is left untouched, so incremental cooperative rebalancing (e.g. with the {@link
+     * org.apache.kafka.clients.consumer.CooperativeStickyAssignor}) doesn't interrupt processing of them.
      * <p>
      * Make sure the calling thread is the thread which performs commit - i.e. is the {@link OffsetCommitter}.
      */
@@ -230,7 +287,14 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
         try {
             log.debug("Partitions revoked (onPartitionsRevoked), state: {}", state);
-            commitOffsetsThatAreReady();
+            if (options.isUsingTransactionalProducer()) {
+                // offsets are committed as part of the transaction, which must include everything produced so far
+                commitOffsetsThatAreReady();
+            } else {
+                // only commit the revoked partitions - with cooperative rebalancing, retained partitions carry on
+                // untouched. Also only through our own consumer - others in the pool may be rebalancing concurrently
+                brokerPollSubsystem.commitPartitions(partitions);
+            }
             wm.onPartitionsRevoked(partitions);
             usersConsumerRebalanceListener.ifPresent(x -> x.onPartitionsRevoked(partitions));
         } catch (Exception e) {
@@ -260,6 +324,44 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         usersConsumerRebalanceListener.ifPresent(x -> x.onPartitionsLost(partitions));
     }
 
+    /**
+     * Rebalance listener for the {@link ParallelConsumerOptions#getAdditionalConsumers() additional consumers} in the
+     * pool. Commits are made only through the consumer being rebalanced, on its own poller thread.
+     *
+     * @see #onPartitionsRevoked
+     */
+    @RequiredArgsConstructor
+    private class PooledConsumerRebalanceListener implements ConsumerRebalanceListener {
+
+        private final org.apache.kafka.clients.consumer.Consumer<K, V> pooledConsumer;
+
+        private final BrokerPollSystem<K, V> pollSystem;
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            try {
+                log.debug("Pooled consumer partitions revoked: {}, state: {}", partitions, state);
+                pollSystem.commitPartitions(partitions);
+                wm.onPartitionsRevoked(partitions);
+                usersConsumerRebalanceListener.ifPresent(x -> x.onPartitionsRevoked(partitions));
+            } catch (Exception e) {
+                throw new InternalRuntimeError("onPartitionsRevoked event error", e);
+            }
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            wm.onPartitionsAssigned(partitions, pooledConsumer);
+            usersConsumerRebalanceListener.ifPresent(x -> x.onPartitionsAssigned(partitions));
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            wm.onPartitionsLost(partitions);
+            usersConsumerRebalanceListener.ifPresent(x -> x.onPartitionsLost(partitions));
+        }
+    }
+
     /**
      * Nasty reflection to check if auto commit is disabled.
      * <p>
@@ -288,7 +390,8 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
     @Override
     public void poll(Consumer<ConsumerRecord<K, V>> usersVoidConsumptionFunction) {
-        Function<ConsumerRecord<K, V>, List<Object>> wrappedUserFunc = (record) -> {
+        Function<WorkContainer<K, V>, List<Object>> wrappedUserFunc = (wc) -> {
+            ConsumerRecord<K, V> record = wc.getCr();
             log.trace("asyncPoll - Consumed a record ({}), executing void function...", record.offset());
 
             carefullyRun(usersVoidConsumptionFunction, record);
@@ -310,7 +413,9 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         }
 
         // wrap user func to add produce function
-        Function<ConsumerRecord<K, V>, List<ConsumeProduceResult<K, V, K, V>>> wrappedUserFunc = (consumedRecord) -> {
+        Function<WorkContainer<K, V>, List<ConsumeProduceResult<K, V, K, V>>> wrappedUserFunc = (wc) -> {
+            ConsumerRecord<K, V> consumedRecord = wc.getCr();
+            wc.setWorkType(PRODUCE_TYPE);
 
             List<ProducerRecord<K, V>> recordListToProduce = carefullyRun(userFunction, consumedRecord);
 
@@ -319,13 +424,10 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
             }
             log.trace("asyncPoll and Stream - Consumed a record ({}), and returning a derivative result record to be produced: {}", consumedRecord, recordListToProduce);
 
-            List<ConsumeProduceResult<K, V, K, V>> results = new ArrayList<>();
-            for (ProducerRecord<K, V> toProduce : recordListToProduce) {
-                RecordMetadata produceResultMeta = producerManager.get().produceMessage(toProduce);
-                var result = new ConsumeProduceResult<>(consumedRecord, toProduce, produceResultMeta);
-                results.add(result);
-            }
-            return results;
+            produceAndCompleteFromCallbacks(wc, recordListToProduce, callback);
+
+            // results are delivered to the user's callback from the send callbacks
+            return UniLists.of();
         };
 
         supervisorLoop(wrappedUserFunc, callback);
@@ -356,6 +458,55 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         pollAndProduceMany((record) -> UniLists.of(userFunction.apply(record)), callback);
     }
 
+    private ProducerManager<K, V> getProducerManagerFor(ConsumerRecord<K, V> sourceRecord) {
+        return producerPool.map(pool -> pool.getProducerManagerFor(sourceRecord)).orElseGet(producerManager::get);
+    }
+
+    /**
+     * Sends all the records without waiting for them, and completes the source work once the broker has acknowledged
+     * them all - or fails it, if any of them fail.
+     * <p>
+     * The user's callback is run for each result on the producer's network thread, as each send is acknowledged.
+     */
+    private void produceAndCompleteFromCallbacks(WorkContainer<K, V> wc,
+                                                 List<ProducerRecord<K, V>> recordListToProduce,
+                                                 Consumer<ConsumeProduceResult<K, V, K, V>> callback) {
+        // one extra, held until all the sends have been issued, so callbacks can't complete the work early
+        var sendsOutstanding = new AtomicInteger(recordListToProduce.size() + 1);
+        var failed = new AtomicBoolean(false);
+        Runnable onSendFinished = () -> {
+            if (sendsOutstanding.decrementAndGet() == 0) {
+                if (failed.get()) {
+                    wc.onUserFunctionFailure();
+                } else {
+                    wc.onUserFunctionSuccess();
+                }
+                addToMailbox(wc);
+            }
+        };
+
+        ConsumerRecord<K, V> consumedRecord = wc.getCr();
+        for (ProducerRecord<K, V> toProduce : recordListToProduce) {
+            getProducerManagerFor(consumedRecord).produceMessage(toProduce, (meta, exception) -> {
+                if (exception != null) {
+                    log.error("Error producing result message for {}", wc, exception);
+                    failed.set(true);
+                } else {
+                    try {
+                        log.trace("Running users's call back...");
+                        callback.accept(new ConsumeProduceResult<>(consumedRecord, toProduce, meta));
+                    } catch (Exception e) {
+                        log.error("Error in user's produce call back for {}", wc, e);
+                        failed.set(true);
+                    }
+                }
+                onSendFinished.run();
+            });
+        }
+        // if a send above threw, the outstanding count never reaches zero, and the runner fails the work instead
+        onSendFinished.run();
+    }
+
     /**
      * Close the system, without draining.
      *
@@ -426,11 +577,17 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
         // only close consumer once producer has committed it's offsets (tx'l)
         log.debug("Closing and waiting for broker poll system...");
-        brokerPollSubsystem.closeAndWait();
+        for (var pollSystem : getAllBrokerPollSystems()) {
+            pollSystem.closeAndWait();
+        }
 
         maybeCloseConsumer();
 
-        producerManager.ifPresent(x -> x.close(timeout));
+        if (producerPool.isPresent()) {
+            producerPool.get().close(timeout);
+        } else {
+            producerManager.ifPresent(x -> x.close(timeout));
+        }
 
         log.debug("Shutting down execution pool...");
         List<Runnable> unfinished = workerPool.shutdownNow();
@@ -471,7 +628,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     }
 
     private boolean isResponsibleForCommits() {
-        return (committer instanceof ProducerManager);
+        return (committer instanceof ProducerManager || committer instanceof ProducerPool);
     }
 
     /**
@@ -529,9 +686,10 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     /**
      * Supervisor loop for the main loop.
      *
+     * @param userFunction the wrapped user function, given the work container of the record to process
      * @see #supervisorLoop(Function, Consumer)
      */
-    protected <R> void supervisorLoop(Function<ConsumerRecord<K, V>, List<R>> userFunction,
+    protected <R> void supervisorLoop(Function<WorkContainer<K, V>, List<R>> userFunction,
                                       Consumer<R> callback) {
         log.info("Control loop starting up...");
 
@@ -561,7 +719,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
             return true;
         };
 
-        brokerPollSubsystem.start();
+        getAllBrokerPollSystems().forEach(BrokerPollSystem::start);
 
         ExecutorService executorService = Executors.newSingleThreadExecutor();
         Future<Boolean> controlTaskFutureResult = executorService.submit(controlTask);
@@ -571,7 +729,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     /**
      * Main control loop
      */
-    private <R> void controlLoop(Function<ConsumerRecord<K, V>, List<R>> userFunction,
+    private <R> void controlLoop(Function<WorkContainer<K, V>, List<R>> userFunction,
                                  Consumer<R> callback) throws TimeoutException, ExecutionException, InterruptedException {
         if (state == running || state == draining) {
             log.trace("Loop: Get work");
@@ -584,7 +742,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         if (state == running) {
             if (!wm.isSufficientlyLoaded()) {
                 log.debug("Found not enough messages queued up, ensuring poller is awake");
-                brokerPollSubsystem.wakeup();
+                getAllBrokerPollSystems().forEach(BrokerPollSystem::wakeupIfPausedAndShouldResume);
             }
         }
 
@@ -612,7 +770,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         }
 
         // sanity - supervise the poller
-        brokerPollSubsystem.supervise();
+        getAllBrokerPollSystems().forEach(BrokerPollSystem::supervise);
 
         // end of loop
         log.trace("End of control loop, {} remaining in work manager. In state: {}", wm.getPartitionWorkRemainingCount(), state);
@@ -620,7 +778,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
 
     private void drain() {
         log.debug("Signaling to drain...");
-        brokerPollSubsystem.drain();
+        getAllBrokerPollSystems().forEach(BrokerPollSystem::drain);
         if (!isRecordsAwaitingProcessing()) {
             transitionToClosing();
         }
@@ -644,7 +802,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     private void processWorkCompleteMailBox() {
         log.trace("Processing mailbox (might block waiting or results)...");
         Set<WorkContainer<K, V>> results = new HashSet<>();
-        final Duration timeout = getTimeToNextCommit(); // don't sleep longer than when we're expected to maybe commit
+        final Duration timeout = getTimeToNextCommitOrRateLimitPermit(); // don't sleep longer than when we're expected to maybe commit
 
         // blocking get the head of the queue
         WorkContainer<K, V> firstBlockingPoll = null;
@@ -689,26 +847,34 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     }
 
     /**
-     * Conditionally commit offsets to broker
+     * Conditionally commit offsets to broker.
+     * <p>
+     * Commits are only made when progress has been made, and then either when the commit interval has elapsed, a
+     * progress threshold has been reached, or there's no benefit in lingering.
+     *
+     * @see ParallelConsumerOptions#getCommitAfterRecordsCompleted()
+     * @see ParallelConsumerOptions#getCommitAfterOffsetAdvance()
      */
     private void commitOffsetsMaybe() {
         Duration elapsedSinceLast = getTimeSinceLastCommit();
         boolean commitFrequencyOK = toSeconds(elapsedSinceLast) >= toSeconds(timeBetweenCommits);
-        boolean shouldCommitNow = commitFrequencyOK || !lingeringOnCommitWouldBeBeneficial() || isCommandedToCommit();
-        if (shouldCommitNow) {
+        if (isCommandedToCommit()) {
+            log.debug("Commit commanded");
+            commitOffsetsThatAreReady();
+            lastCommit = clock.getNow();
+        } else if (wm.isClean()) {
+            if (commitFrequencyOK) {
+                log.trace("Commit interval elapsed, but no progress made since last commit, skipping");
+                lastCommit = clock.getNow();
+            }
+        } else if (commitFrequencyOK || wm.isCommitProgressThresholdReached() || !lingeringOnCommitWouldBeBeneficial()) {
             if (!commitFrequencyOK) {
-                log.debug("Commit too frequent, but no benefit in lingering");
+                log.debug("Committing before commit interval, as progress threshold reached or no benefit in lingering");
             }
             commitOffsetsThatAreReady();
-            lastCommit = Instant.now();
+            lastCommit = clock.getNow();
         } else {
-            if (log.isDebugEnabled()) {
-                if (wm.hasCommittableOffsets()) {
-                    log.debug("Have offsets to commit, but not enough time elapsed ({}), waiting for at least {}...", elapsedSinceLast, timeBetweenCommits);
-                } else {
-                    log.trace("Could commit now, but no offsets commitable");
-                }
-            }
+            log.debug("Have progress to commit, but not enough time elapsed ({}), waiting for at least {}...", elapsedSinceLast, timeBetweenCommits);
         }
     }
 
@@ -738,6 +904,19 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         }
     }
 
+    /**
+     * If work is being held back by a rate limit, don't sleep longer than when it can be released either
+     */
+    private Duration getTimeToNextCommitOrRateLimitPermit() {
+        Duration timeToNextCommit = getTimeToNextCommit();
+        Optional<Duration> rateLimitWait = wm.getTimeUntilRateLimitPermits();
+        if (rateLimitWait.isPresent() && rateLimitWait.get().compareTo(timeToNextCommit) < 0) {
+            log.trace("Work held back by rate limit, only waiting for {}", rateLimitWait.get());
+            return rateLimitWait.get();
+        }
+        return timeToNextCommit;
+    }
+
     private Duration getTimeSinceLastCommit() {
         Instant now = clock.getNow();
         return Duration.between(lastCommit, now);
@@ -752,7 +931,9 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     }
 
     protected void handleFutureResult(WorkContainer<K, V> wc) {
-        if (wc.getUserFunctionSucceeded().get()) {
+        boolean succeeded = wc.getUserFunctionSucceeded().get();
+        wm.onUserFunctionResult(wc, succeeded);
+        if (succeeded) {
             onSuccess(wc);
         } else {
             onFailure(wc);
@@ -775,7 +956,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
      *
      * @param workToProcess the polled records to process
      */
-    private <R> void submitWorkToPool(Function<ConsumerRecord<K, V>, List<R>> usersFunction,
+    private <R> void submitWorkToPool(Function<WorkContainer<K, V>, List<R>> usersFunction,
                                       Consumer<R> callback,
                                       List<WorkContainer<K, V>> workToProcess) {
         if (!workToProcess.isEmpty()) {
@@ -794,7 +975,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     /**
      * Run the supplied function.
      */
-    protected <R> List<Tuple<ConsumerRecord<K, V>, R>> userFunctionRunner(Function<ConsumerRecord<K, V>, List<R>> usersFunction,
+    protected <R> List<Tuple<ConsumerRecord<K, V>, R>> userFunctionRunner(Function<WorkContainer<K, V>, List<R>> usersFunction,
                                                                           Consumer<R> callback,
                                                                           WorkContainer<K, V> wc) {
         // call the user's function
@@ -803,8 +984,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
             MDC.put("offset", wc.toString());
             log.trace("Pool received: {}", wc);
 
-            ConsumerRecord<K, V> rec = wc.getCr();
-            resultsFromUserFunction = usersFunction.apply(rec);
+            resultsFromUserFunction = usersFunction.apply(wc);
 
             onUserFunctionSuccess(wc, resultsFromUserFunction);
 
@@ -828,14 +1008,26 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
     }
 
     protected void addToMailBoxOnUserFunctionSuccess(WorkContainer<K, V> wc, List<?> resultsFromUserFunction) {
+        if (isProduceWork(wc)) {
+            log.trace("User function success but not adding to mailbox until sends are acknowledged");
+            return;
+        }
         addToMailbox(wc);
     }
 
     protected void onUserFunctionSuccess(WorkContainer<K, V> wc, List<?> resultsFromUserFunction) {
+        if (isProduceWork(wc)) {
+            // not a success until the produced records are acknowledged
+            return;
+        }
         log.trace("User function success");
         wc.onUserFunctionSuccess();
     }
 
+    private boolean isProduceWork(WorkContainer<K, V> wc) {
+        return PRODUCE_TYPE.equals(wc.getWorkType());
+    }
+
     protected void addToMailbox(WorkContainer<K, V> wc) {
         log.trace("Adding {} to mailbox...", wc);
         workMailBox.add(wc);
@@ -852,7 +1044,7 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
      */
     void notifyNewWorkRegistered() {
         if (currentlyPollingWorkCompleteMailBox.get()) {
-            if (producerManager.isPresent() && !producerManager.get().isTransactionInProgress()) {
+            if (producerManager.isPresent() && !isTransactionInProgress()) {
                 log.trace("Interrupting control thread: Knock knock, wake up! You've got mail (tm)!");
                 this.blockableControlThread.interrupt();
             } else {
@@ -863,6 +1055,10 @@ public class ParallelEoSStreamProcessor<K, V> implements ParallelStreamProcessor
         }
     }
 
+    private boolean isTransactionInProgress() {
+        return producerPool.map(ProducerPool::isTransactionInProgress).orElseGet(() -> producerManager.get().isTransactionInProgress());
+    }
+
     @Override
     public int workRemaining() {
         return wm.getPartitionWorkRemainingCount();
@@ -12,9 +12,11 @@ import org.apache.kafka.common.TopicPartition;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ConcurrentModificationException;
 import java.util.Map;
-import java.util.concurrent.Future;
+import java.util.Queue;
+import java.util.function.Predicate;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static io.confluent.csid.utils.StringUtils.msg;
@@ -36,15 +38,41 @@ public class ProducerManager<K, V> extends AbstractOffsetCommitter<K, V> impleme
      */
     private ReentrantReadWriteLock producerTransactionLock;
 
+    /**
+     * Sends made while a transaction is committing, which are sent into the next transaction as soon as it begins,
+     * rather than making the sending threads wait for the commit.
+     * <p>
+     * Guarded by itself, along with {@link #committing}.
+     */
+    private final Queue<ParallelConsumer.Tuple<ProducerRecord<K, V>, Callback>> sendsDuringCommit = new ArrayDeque<>();
+
+    /**
+     * Guarded by {@link #sendsDuringCommit}
+     */
+    private boolean committing = false;
+
     // nasty reflection
     private Field txManagerField;
     private Method txManagerMethodIsCompleting;
     private Method txManagerMethodIsReady;
 
+    /**
+     * The input partitions whose offsets are committed in this producer's transactions
+     *
+     * @see ProducerPool
+     */
+    private final Predicate<TopicPartition> ownedPartitions;
+
     public ProducerManager(final Producer<K, V> newProducer, final ConsumerManager<K, V> newConsumer, final WorkManager<K, V> wm, ParallelConsumerOptions options) {
+        this(newProducer, newConsumer, wm, options, tp -> true);
+    }
+
+    ProducerManager(final Producer<K, V> newProducer, final ConsumerManager<K, V> newConsumer, final WorkManager<K, V> wm, ParallelConsumerOptions options,
+                    Predicate<TopicPartition> ownedPartitions) {
         super(newConsumer, wm);
         this.producer = newProducer;
         this.options = options;
+        this.ownedPartitions = ownedPartitions;
 
         producerIsConfiguredForTransactions = setupReflection();
 
@@ -105,43 +133,86 @@ public class ProducerManager<K, V> extends AbstractOffsetCommitter<K, V> impleme
     }
 
     /**
-     * Produce a message back to the broker.
+     * Produce a message back to the broker, without waiting for the result.
      * <p>
-     * Implementation uses the blocking API, performance upgrade in later versions, is not an issue for the more common
-     * use case where messages aren't produced.
+     * The supplied callback is run by the producer once the broker has acknowledged (or failed) the send, so the
+     * calling thread is free to carry on, and the producer is free to batch sends as per it's linger settings.
+     * <p>
+     * If a transaction is currently committing, the send is buffered and made into the next transaction as soon as it
+     * begins, so sending threads aren't held up by commits. As work is only completed once it's sends are
+     * acknowledged, the source records of buffered sends can't be part of the committing transaction either.
      *
      * @see ParallelConsumer#poll
      * @see ParallelStreamProcessor#pollAndProduceMany
      */
-    RecordMetadata produceMessage(ProducerRecord<K, V> outMsg) {
-        // only needed if not using tx
-        Callback callback = (RecordMetadata metadata, Exception exception) -> {
-            if (exception != null) {
-                log.error("Error producing result message", exception);
-                throw new RuntimeException("Error producing result message", exception);
-            }
-        };
-
+    void produceMessage(ProducerRecord<K, V> outMsg, Callback callback) {
         ReentrantReadWriteLock.ReadLock readLock = producerTransactionLock.readLock();
-        readLock.lock();
-        Future<RecordMetadata> send;
+        // check and lock together, so a commit can't start in between and hold us up
+        synchronized (sendsDuringCommit) {
+            if (committing) {
+                log.trace("Transaction committing, buffering send for the next transaction");
+                sendsDuringCommit.add(ParallelConsumer.Tuple.pairOf(outMsg, callback));
+                return;
+            }
+            readLock.lock();
+        }
         try {
-            send = producer.send(outMsg, callback);
+            producer.send(outMsg, callback);
         } finally {
             readLock.unlock();
         }
+    }
+
+    /**
+     * Send everything buffered during the commit into the new transaction. Must be called while still holding the
+     * commit lock, so the buffered sends are made before any new ones.
+     */
+    private void sendBufferedIntoNextTransaction() {
+        synchronized (sendsDuringCommit) {
+            if (!sendsDuringCommit.isEmpty()) {
+                log.debug("Sending {} record(s) buffered during commit", sendsDuringCommit.size());
+            }
+            while (!sendsDuringCommit.isEmpty()) {
+                var buffered = sendsDuringCommit.poll();
+                Callback callback = buffered.getRight();
+                try {
+                    producer.send(buffered.getLeft(), callback);
+                } catch (RuntimeException e) {
+                    callback.onCompletion(null, e);
+                }
+            }
+            committing = false;
+        }
+    }
 
-        // wait on the send results
-        try {
-            return send.get();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Fail anything buffered during the last commit, as there's no next transaction for it
+     */
+    private void failBufferedSends() {
+        synchronized (sendsDuringCommit) {
+            while (!sendsDuringCommit.isEmpty()) {
+                var buffered = sendsDuringCommit.poll();
+                buffered.getRight().onCompletion(null, new KafkaException("Producer closed before buffered send could be made"));
+            }
         }
     }
 
+    @Override
+    protected Predicate<TopicPartition> getPartitionsToCommit() {
+        return ownedPartitions;
+    }
+
     @Override
     protected void preAcquireWork() {
-        acquireCommitLock();
+        synchronized (sendsDuringCommit) {
+            committing = true;
+        }
+        try {
+            acquireCommitLock();
+        } catch (RuntimeException e) {
+            sendBufferedIntoNextTransaction();
+            throw e;
+        }
     }
 
     @Override
@@ -150,6 +221,7 @@ public class ProducerManager<K, V> extends AbstractOffsetCommitter<K, V> impleme
         if (producerTransactionLock.getWriteHoldCount() > 1) // sanity
             throw new ConcurrentModificationException("Lock held too many times, won't be released problem and will cause deadlock");
 
+        sendBufferedIntoNextTransaction();
         releaseCommitLock();
     }
 
@@ -281,6 +353,7 @@ public class ProducerManager<K, V> extends AbstractOffsetCommitter<K, V> impleme
                 releaseCommitLock();
             }
         }
+        failBufferedSends();
         producer.close(timeout);
     }
 
@@ -0,0 +1,115 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static io.confluent.csid.utils.KafkaUtils.toTP;
+
+/**
+ * A pool of transactional producers, each owning a subset of the input partitions.
+ * <p>
+ * Records produced while processing a partition are sent through its owner, and the partition's offsets are committed
+ * in its owner's transactions. Each commit is made by every producer in parallel, so transactions are smaller and
+ * commit latency doesn't grow with total throughput.
+ *
+ * @see ParallelConsumerOptions#getAdditionalProducers()
+ */
+@Slf4j
+class ProducerPool<K, V> implements OffsetCommitter {
+
+    @Getter
+    private final List<ProducerManager<K, V>> producerManagers = new ArrayList<>();
+
+    private final ConsumerManager<K, V> consumerMgr;
+
+    /**
+     * Each producer's commit is run start to finish on one of these, as the transaction lock is held by the committing
+     * thread
+     */
+    private final ExecutorService commitPool;
+
+    ProducerPool(ConsumerManager<K, V> consumerMgr, WorkManager<K, V> wm, ParallelConsumerOptions<K, V> options) {
+        this.consumerMgr = consumerMgr;
+
+        List<Producer<K, V>> producers = new ArrayList<>();
+        producers.add(options.getProducer());
+        producers.addAll(options.getAdditionalProducers());
+
+        int poolSize = producers.size();
+        for (int i = 0; i < poolSize; i++) {
+            int index = i;
+            producerManagers.add(new ProducerManager<>(producers.get(i), consumerMgr, wm, options,
+                    tp -> ownerIndex(tp, poolSize) == index));
+        }
+        this.commitPool = Executors.newFixedThreadPool(poolSize);
+    }
+
+    private static int ownerIndex(TopicPartition tp, int poolSize) {
+        return Math.floorMod(tp.hashCode(), poolSize);
+    }
+
+    ProducerManager<K, V> getProducerManagerFor(ConsumerRecord<K, V> sourceRecord) {
+        return producerManagers.get(ownerIndex(toTP(sourceRecord), producerManagers.size()));
+    }
+
+    /**
+     * Commits every producer's transaction in parallel, waiting for them all to finish.
+     * <p>
+     * Each producer only scans and commits the partitions it owns, so the scans don't overlap.
+     */
+    @Override
+    public void retrieveOffsetsAndCommit() {
+        // the consumer can only be used from this thread
+        ConsumerGroupMetadata groupMetadata = consumerMgr.groupMetadata();
+
+        List<Future<?>> commits = new ArrayList<>();
+        for (var pm : producerManagers) {
+            commits.add(commitPool.submit(() -> pm.retrieveOffsetsAndCommit(pm.getPartitionsToCommit(), () -> groupMetadata)));
+        }
+
+        RuntimeException failure = null;
+        for (var commit : commits) {
+            try {
+                commit.get();
+            } catch (ExecutionException e) {
+                log.error("Transaction commit failed", e.getCause());
+                if (failure == null) {
+                    failure = new InternalRuntimeError("Transaction commit failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalRuntimeError("Interrupted waiting for transaction commits", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    boolean isTransactionInProgress() {
+        return producerManagers.stream().anyMatch(ProducerManager::isTransactionInProgress);
+    }
+
+    void close(Duration timeout) {
+        commitPool.shutdown();
+        for (var pm : producerManagers) {
+            pm.close(timeout);
+        }
+    }
+}
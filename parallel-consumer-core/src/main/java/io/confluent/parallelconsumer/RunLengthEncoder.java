@@ -56,6 +56,16 @@ class RunLengthEncoder extends OffsetEncoder {
         encodeRunLength(true);
     }
 
+    @Override
+    void encodeIncompleteOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        encodeRunLength(false, toRangeIndex - fromRangeIndex);
+    }
+
+    @Override
+    void encodeCompletedOffsets(final int fromRangeIndex, final int toRangeIndex) {
+        encodeRunLength(true, toRangeIndex - fromRangeIndex);
+    }
+
     @Override
     public byte[] serialise() throws EncodingNotSupportedException {
         runLengthEncodingIntegers.add(currentRunLengthCount); // add tail
@@ -96,14 +106,18 @@ class RunLengthEncoder extends OffsetEncoder {
     }
 
     private void encodeRunLength(final boolean currentIsComplete) {
+        encodeRunLength(currentIsComplete, 1);
+    }
+
+    private void encodeRunLength(final boolean currentIsComplete, final int count) {
         // run length
         boolean currentOffsetMatchesOurRunLengthState = previousRunLengthState == currentIsComplete;
         if (currentOffsetMatchesOurRunLengthState) {
-            currentRunLengthCount++;
+            currentRunLengthCount += count;
         } else {
             previousRunLengthState = currentIsComplete;
             runLengthEncodingIntegers.add(currentRunLengthCount);
-            currentRunLengthCount = 1; // reset to 1
+            currentRunLengthCount = count; // reset to the new run
         }
     }
 }
@@ -0,0 +1,84 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Simple token bucket, refilled continuously at a fixed rate, with a burst capacity of one seconds worth of permits.
+ * <p>
+ * Time is always supplied by the caller, so that it can be driven from a {@link io.confluent.csid.utils.WallClock}.
+ * <p>
+ * Not thread safe - only used from the control thread.
+ *
+ * @see WorkRateLimiter
+ */
+@ToString
+class TokenBucket {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    @Getter
+    private final double permitsPerSecond;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private Instant lastRefill;
+
+    TokenBucket(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.tokens = capacity;
+    }
+
+    private void refill(Instant now) {
+        if (lastRefill == null) {
+            lastRefill = now;
+            return;
+        }
+        long elapsedNanos = Duration.between(lastRefill, now).toNanos();
+        if (elapsedNanos > 0) {
+            tokens = Math.min(capacity, tokens + (elapsedNanos * permitsPerSecond / NANOS_PER_SECOND));
+            lastRefill = now;
+        }
+    }
+
+    /**
+     * @return true if a permit is available now, without taking it
+     */
+    boolean hasPermit(Instant now) {
+        refill(now);
+        return tokens >= 1;
+    }
+
+    /**
+     * Take a permit - should only be called after {@link #hasPermit} has returned true.
+     */
+    void take() {
+        tokens -= 1;
+    }
+
+    /**
+     * @return how long until the next permit becomes available, zero if one is available now
+     */
+    Duration timeUntilNextPermit(Instant now) {
+        refill(now);
+        if (tokens >= 1) {
+            return Duration.ZERO;
+        }
+        double missing = 1 - tokens;
+        long nanos = (long) Math.ceil(missing * NANOS_PER_SECOND / permitsPerSecond);
+        return Duration.ofNanos(nanos);
+    }
+}
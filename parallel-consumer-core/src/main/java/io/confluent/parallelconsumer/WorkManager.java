@@ -16,17 +16,26 @@ import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Bytes;
 import pl.tlinkowski.unij.api.UniLists;
+import pl.tlinkowski.unij.api.UniMaps;
 import pl.tlinkowski.unij.api.UniSets;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static io.confluent.csid.utils.KafkaUtils.toTP;
 import static io.confluent.parallelconsumer.ParallelConsumerOptions.ProcessingOrder.KEY;
@@ -96,34 +105,132 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     @Setter(PACKAGE)
     private WallClock clock = new WallClock();
 
+    /**
+     * Limits the rate work is handed out
+     *
+     * @see ParallelConsumerOptions#getMaxRecordsPerSecond()
+     */
+    private final WorkRateLimiter rateLimiter;
+
+    /**
+     * Stops work being handed out when the downstream is failing
+     *
+     * @see ParallelConsumerOptions#getCircuitBreakerFailureRateThreshold()
+     */
+    private final CircuitBreaker circuitBreaker;
+
     org.apache.kafka.clients.consumer.Consumer<K, V> consumer;
 
     // visible for testing
     /**
-     * Offsets, which have been seen, beyond the highest committable offset, which haven't been totally completed
+     * Offsets, which have been seen, beyond the highest committable offset, which haven't been totally completed - in
+     * order, as primitives, as offset maps of large partitions can contain millions of them
      */
-    Map<TopicPartition, TreeSet<Long>> partitionIncompleteOffsets = new HashMap<>();
+    Map<TopicPartition, long[]> partitionIncompleteOffsets = new ConcurrentHashMap<>();
 
     // visible for testing
     /**
      * The highest seen offset for a partition
      */
-    Map<TopicPartition, Long> partitionOffsetHighWaterMarks = new HashMap<TopicPartition, Long>();
+    Map<TopicPartition, Long> partitionOffsetHighWaterMarks = new ConcurrentHashMap<>();
 
     // visible for testing
     long MISSING_HIGH_WATER_MARK = -1L;
 
     /**
-     * Get's set to true whenever work is returned completed, so that we know when a commit needs to be made.
-     * <p>
-     * In normal operation, this probably makes very little difference, as typical commit frequency is 1 second, so low
-     * chances no work has completed in the last second.
+     * Offset maps of newly assigned partitions which are still being decoded, off the rebalance callback thread
+     *
+     * @see OffsetMapCodecManager#loadOffsetMapForPartition
+     */
+    private final Map<TopicPartition, CompletableFuture<Optional<ParallelConsumer.Tuple<Long, long[]>>>> pendingOffsetMapLoads = new ConcurrentHashMap<>();
+
+    /**
+     * Records held back until their partition's offset map is loaded, so previously completed records aren't replayed
+     */
+    private final Map<TopicPartition, Queue<ConsumerRecord<K, V>>> recordsAwaitingOffsetMap = new ConcurrentHashMap<>();
+
+    /**
+     * Partitions which have had work succeed since they were last scanned for a commit, so that we know when a commit
+     * needs to be made, and only scan and encode the partitions which have made progress.
+     */
+    private final Set<TopicPartition> partitionsWithUncommittedProgress = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The offset data last committed for each partition, so unchanged state isn't sent again
+     */
+    private final Map<TopicPartition, OffsetAndMetadata> partitionLastCommitted = new ConcurrentHashMap<>();
+
+    /**
+     * The last offset data of each partition whose offset map was moved to the overflow store, along with the offset
+     * data from before it was moved, so that {@link #partitionLastCommitted} can be compared with freshly encoded maps
+     */
+    private final Map<TopicPartition, ParallelConsumer.Tuple<OffsetAndMetadata, OffsetAndMetadata>> partitionLastOverflowed = new ConcurrentHashMap<>();
+
+    /**
+     * The last offset map encoded for each partition, along with the fingerprint of the state it was encoded from, so
+     * it can be reused while the state doesn't change
+     */
+    private final Map<TopicPartition, ParallelConsumer.Tuple<OffsetMapFingerprint, String>> partitionLastEncodedOffsetMap = new ConcurrentHashMap<>();
+
+    /**
+     * Partitions whose last offset map was too big for the metadata budget, and had to be stripped
+     *
+     * @see #isBeyondOffsetMapBudget
+     */
+    private final Set<TopicPartition> partitionsOverMetadataBudget = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The total of {@link #partitionRecordsCompletedSinceCommit}, so the threshold can be checked without summing them
+     *
+     * @see ParallelConsumerOptions#getCommitAfterRecordsCompleted()
+     */
+    private final AtomicInteger recordsCompletedSinceCommit = new AtomicInteger();
+
+    /**
+     * Kept per partition, as partitions can be committed separately and concurrently (see {@link ProducerPool}), and a
+     * commit only resets the progress of the partitions it covers
+     *
+     * @see ParallelConsumerOptions#getCommitAfterRecordsCompleted()
      */
-    private AtomicBoolean workStateIsDirtyNeedsCommitting = new AtomicBoolean(false);
+    private final Map<TopicPartition, AtomicInteger> partitionRecordsCompletedSinceCommit = new ConcurrentHashMap<>();
+
+    /**
+     * @see ParallelConsumerOptions#getCommitAfterOffsetAdvance()
+     */
+    private final Set<TopicPartition> partitionsPastOffsetAdvanceThreshold = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @see #isBeyondOffsetMapBudget
+     */
+    private final int maxOffsetsEncodableInMetadata;
+
+    /**
+     * Decodes the offset maps of newly assigned partitions in parallel. Its threads are daemons, and time out when idle,
+     * so it needs no shutting down.
+     *
+     * @see OffsetMapCodecManager#loadOffsetMapForPartition
+     */
+    @Getter(PACKAGE)
+    private final ExecutorService offsetMapDecodePool = createOffsetMapDecodePool();
 
     public WorkManager(ParallelConsumerOptions options, org.apache.kafka.clients.consumer.Consumer<K, V> consumer) {
         this.options = options;
+        this.maxOffsetsEncodableInMetadata = OffsetMapCodecManager.maxOffsetsEncodableInMetadata(options.getOffsetMapTextEncoding());
         this.consumer = consumer;
+        this.rateLimiter = new WorkRateLimiter(options);
+        this.circuitBreaker = new CircuitBreaker(options);
+    }
+
+    private static ExecutorService createOffsetMapDecodePool() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger count = new AtomicInteger();
+        var pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "offset-map-decode-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     /**
@@ -131,10 +238,27 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      */
     @Override
     public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        onPartitionsAssigned(partitions, this.consumer);
+    }
+
+    /**
+     * Load offset map for partitions assigned to a specific consumer.
+     * <p>
+     * Must be called from the thread which controls the assigned consumer.
+     *
+     * @param assignedTo the consumer the partitions have been assigned to, which may be one of a pool
+     * @see ParallelConsumerOptions#getAdditionalConsumers()
+     */
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions, org.apache.kafka.clients.consumer.Consumer<K, V> assignedTo) {
+        if (partitions.isEmpty()) {
+            // cooperative rebalancing calls back even when nothing new is assigned
+            log.trace("No newly assigned partitions");
+            return;
+        }
         try {
             log.debug("onPartitionsAssigned: {}", partitions);
             Set<TopicPartition> partitionsSet = UniSets.copyOf(partitions);
-            OffsetMapCodecManager<K, V> om = new OffsetMapCodecManager<>(this, this.consumer);
+            OffsetMapCodecManager<K, V> om = new OffsetMapCodecManager<>(this, assignedTo);
             om.loadOffsetMapForPartition(partitionsSet);
         } catch (Exception e) {
             log.error("Error in onPartitionsAssigned", e);
@@ -177,6 +301,18 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
 
     private void resetOffsetMapAndRemoveWork(Collection<TopicPartition> partitions) {
         for (TopicPartition partition : partitions) {
+            var pendingLoad = pendingOffsetMapLoads.remove(partition);
+            if (pendingLoad != null) {
+                pendingLoad.cancel(false);
+            }
+            recordsAwaitingOffsetMap.remove(partition);
+            partitionsWithUncommittedProgress.remove(partition);
+            resetCommitProgress(partition);
+            partitionRecordsCompletedSinceCommit.remove(partition);
+            partitionLastCommitted.remove(partition);
+            partitionLastOverflowed.remove(partition);
+            partitionLastEncodedOffsetMap.remove(partition);
+            partitionsOverMetadataBudget.remove(partition);
             partitionIncompleteOffsets.remove(partition);
             partitionOffsetHighWaterMarks.remove(partition);
             NavigableMap<Long, WorkContainer<K, V>> oldWorkPartitionQueue = partitionCommitQueues.remove(partition);
@@ -189,7 +325,12 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     }
 
     /**
-     * Remove only the work shards which are referenced from revoked partitions
+     * Remove only the work which came from revoked partitions, leaving work from retained partitions untouched, so that
+     * with incremental cooperative rebalancing (e.g. {@link org.apache.kafka.clients.consumer.CooperativeStickyAssignor})
+     * processing of the retained partitions carries on uninterrupted.
+     * <p>
+     * With {@link ProcessingOrder#KEY} ordering, a key's shard can hold records from several partitions, so only the
+     * revoked partition's records are removed from it, and the shard is only removed once it's empty.
      *
      * @param oldWorkPartitionQueue partition set to scan for unique keys to be removed from our shard queue
      */
@@ -197,8 +338,19 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
         // this all scanning loop could be avoided if we also store a map of unique keys found referenced when a
         // partition is assigned, but that could worst case grow forever
         for (WorkContainer<K, V> work : oldWorkPartitionQueue.values()) {
-            K key = work.getCr().key();
+            Object key = computeShardKey(work.getCr());
+            NavigableMap<Long, WorkContainer<K, V>> shard = this.processingShards.get(key);
+            if (shard == null) {
+                continue;
+            }
+            if (options.getOrdering() == KEY) {
+                shard.remove(work.getCr().offset(), work);
+                if (!shard.isEmpty()) {
+                    continue;
+                }
+            }
             this.processingShards.remove(key);
+            rateLimiter.onShardRemoved(key);
         }
     }
 
@@ -224,6 +376,7 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      * Take our inbound messages from the {@link BrokerPollSystem} and add them to our registry.
      */
     private void processInbox() {
+        completeOffsetMapLoads();
         ArrayList<ConsumerRecords<K, V>> mail = new ArrayList<>();
         workInbox.drainTo(mail);
         for (final ConsumerRecords<K, V> records : mail) {
@@ -237,24 +390,90 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     private void processInbox(ConsumerRecords<K, V> records) {
         log.debug("Registering {} records of work", records.count());
         for (ConsumerRecord<K, V> rec : records) {
-            if (isRecordPreviouslyProcessed(rec)) {
-                log.trace("Record previously processed, skipping. offset: {}", rec.offset());
+            TopicPartition tp = toTP(rec);
+            if (pendingOffsetMapLoads.containsKey(tp)) {
+                log.trace("Offset map for {} still loading, holding back record. offset: {}", tp, rec.offset());
+                recordsAwaitingOffsetMap.computeIfAbsent(tp, ignore -> new ConcurrentLinkedQueue<>()).add(rec);
             } else {
-                Object shardKey = computeShardKey(rec);
-                long offset = rec.offset();
-                var wc = new WorkContainer<K, V>(rec);
+                processRecord(rec);
+            }
+        }
+    }
 
-                TopicPartition tp = toTP(rec);
-                raisePartitionHighWaterMark(offset, tp);
+    private void processRecord(ConsumerRecord<K, V> rec) {
+        if (isRecordPreviouslyProcessed(rec)) {
+            log.trace("Record previously processed, skipping. offset: {}", rec.offset());
+        } else {
+            Object shardKey = computeShardKey(rec);
+            long offset = rec.offset();
+            var wc = new WorkContainer<K, V>(rec);
 
-                processingShards.computeIfAbsent(shardKey, (ignore) -> new ConcurrentSkipListMap<>()).put(offset, wc);
+            TopicPartition tp = toTP(rec);
+            raisePartitionHighWaterMark(offset, tp);
 
-                partitionCommitQueues.computeIfAbsent(tp, (ignore) -> new ConcurrentSkipListMap<>())
-                        .put(offset, wc);
+            processingShards.computeIfAbsent(shardKey, (ignore) -> new ConcurrentSkipListMap<>()).put(offset, wc);
+
+            partitionCommitQueues.computeIfAbsent(tp, (ignore) -> new ConcurrentSkipListMap<>())
+                    .put(offset, wc);
+
+            if (!partitionLastCommitted.containsKey(tp)) {
+                // never committed by us, so the first commit establishes its position, even without progress
+                partitionsWithUncommittedProgress.add(tp);
             }
         }
     }
 
+    /**
+     * Register an offset map which is being decoded asynchronously - records for the partition will be held back until
+     * it's done.
+     * <p>
+     * Must be called before any records for the partition are registered - i.e. from the rebalance callback.
+     */
+    void onOffsetMapLoading(TopicPartition tp, CompletableFuture<Optional<ParallelConsumer.Tuple<Long, long[]>>> load) {
+        pendingOffsetMapLoads.put(tp, load);
+    }
+
+    void onOffsetMapLoaded(TopicPartition tp, ParallelConsumer.Tuple<Long, long[]> incompletes) {
+        raisePartitionHighWaterMark(incompletes.getLeft(), tp);
+        partitionIncompleteOffsets.put(tp, incompletes.getRight());
+    }
+
+    /**
+     * Apply any offset maps which have finished decoding, and release the records held back waiting for them, in their
+     * original order.
+     */
+    private void completeOffsetMapLoads() {
+        if (pendingOffsetMapLoads.isEmpty()) {
+            return;
+        }
+        for (var entry : pendingOffsetMapLoads.entrySet()) {
+            var load = entry.getValue();
+            if (load.isDone() && !load.isCancelled()) {
+                TopicPartition tp = entry.getKey();
+                try {
+                    load.join().ifPresent(incompletes -> onOffsetMapLoaded(tp, incompletes));
+                } catch (CompletionException e) {
+                    // decoding drops corrupt maps itself, but the held back records must be released regardless
+                    log.error("Error loading offset map for {}, dropping it (will replay previously completed messages)", tp, e);
+                }
+                pendingOffsetMapLoads.remove(tp, load);
+                Queue<ConsumerRecord<K, V>> held = recordsAwaitingOffsetMap.remove(tp);
+                if (held != null) {
+                    log.debug("Offset map for {} loaded, releasing {} held back records", tp, held.size());
+                    held.forEach(this::processRecord);
+                }
+            }
+        }
+    }
+
+    private int getRecordsAwaitingOffsetMapCount() {
+        int count = 0;
+        for (var held : recordsAwaitingOffsetMap.values()) {
+            count += held.size();
+        }
+        return count;
+    }
+
     void raisePartitionHighWaterMark(long highWater, TopicPartition tp) {
         // rise the high water mark
         Long oldHighWaterMark = partitionOffsetHighWaterMarks.getOrDefault(tp, MISSING_HIGH_WATER_MARK);
@@ -266,8 +485,8 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     private boolean isRecordPreviouslyProcessed(ConsumerRecord<K, V> rec) {
         long offset = rec.offset();
         TopicPartition tp = new TopicPartition(rec.topic(), rec.partition());
-        TreeSet<Long> incompleteOffsets = this.partitionIncompleteOffsets.getOrDefault(tp, new TreeSet<>());
-        if (incompleteOffsets.contains(offset)) {
+        long[] incompleteOffsets = this.partitionIncompleteOffsets.get(tp);
+        if (incompleteOffsets != null && Arrays.binarySearch(incompleteOffsets, offset) >= 0) {
             // record previously saved as having not been processed
             return false;
         } else {
@@ -284,11 +503,23 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
 
     private Object computeShardKey(ConsumerRecord<K, V> rec) {
         return switch (options.getOrdering()) {
-            case KEY -> rec.key();
+            case KEY -> toShardableKey(rec.key());
             case PARTITION, UNORDERED -> new TopicPartition(rec.topic(), rec.partition());
         };
     }
 
+    /**
+     * Raw byte array keys (e.g. when using {@link LazyDeserialiser}) don't have value based equality, so wrap them in
+     * something that does.
+     */
+    private Object toShardableKey(K key) {
+        if (key instanceof byte[]) {
+            return Bytes.wrap((byte[]) key);
+        } else {
+            return key;
+        }
+    }
+
     public <R> List<WorkContainer<K, V>> maybeGetWork() {
         return maybeGetWork(options.getMaxMessagesToQueue());
     }
@@ -300,9 +531,10 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      */
     public List<WorkContainer<K, V>> maybeGetWork(int requestedMaxWorkToRetrieve) {
         processInbox();
+        rateLimiter.resetRefusals();
 
         int minWorkToGetSetting = min(min(requestedMaxWorkToRetrieve, options.getMaxMessagesToQueue()), options.getMaxNumberMessagesBeyondBaseCommitOffset());
-        int workToGetDelta = minWorkToGetSetting - getInFlightCount();
+        int workToGetDelta = min(minWorkToGetSetting - getInFlightCount(), circuitBreaker.getDispatchAllowance(clock.getNow()));
 
         // optimise early
         if (workToGetDelta < 1) {
@@ -312,6 +544,9 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
         //
         List<WorkContainer<K, V>> work = new ArrayList<>();
 
+        boolean rateLimiting = rateLimiter.isEnabled();
+        boolean globalRateLimitReached = false;
+
         //
         var it = new LoopingResumingIterator<>(iterationResumePoint, processingShards);
 
@@ -339,6 +574,20 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
                 var wc = queueEntry.getValue();
                 boolean alreadySucceeded = !wc.isUserFunctionSucceeded();
                 if (wc.hasDelayPassed(clock) && wc.isNotInFlight() && alreadySucceeded) {
+                    if (isBeyondOffsetMapBudget(wc)) {
+                        // later records in the shard are further beyond
+                        log.trace("{} is too far beyond the committed offset to be tracked in the offset map, leaving queued", wc);
+                        break;
+                    }
+                    if (rateLimiting) {
+                        var permit = rateLimiter.tryAcquire(shard.getKey(), wc.getCr().topic(), clock.getNow());
+                        if (permit != WorkRateLimiter.Permit.GRANTED) {
+                            // leave the record queued, and move on to the next shard, which may be under a different limit
+                            log.trace("Rate limit reached ({}), leaving {} queued", permit, wc);
+                            globalRateLimitReached = permit == WorkRateLimiter.Permit.GLOBALLY_LIMITED;
+                            break;
+                        }
+                    }
                     log.trace("Taking {} as work", wc);
                     wc.takingAsWork();
                     shardWork.add(wc);
@@ -358,20 +607,49 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
                 }
             }
             work.addAll(shardWork);
+
+            if (globalRateLimitReached) {
+                this.iterationResumePoint = Optional.of(shard.getKey());
+                log.debug("Global rate limit reached, stopping (saving iteration resume point {})", iterationResumePoint);
+                break;
+            }
         }
 
 
         log.debug("Got {} records of work", work.size());
         inFlightCount += work.size();
+        circuitBreaker.onDispatched(work);
 
         return work;
     }
 
+    /**
+     * Once a partition's offset map has had to be stripped for being too big for the metadata budget, don't take records
+     * from it so far beyond its lowest uncommitted offset that even a worst case map couldn't fit, until its maps fit
+     * again. Partitions whose maps fit (e.g. compressed or run length encoded well) aren't limited.
+     *
+     * @see OffsetMapCodecManager#maxOffsetsEncodableInMetadata
+     */
+    private boolean isBeyondOffsetMapBudget(WorkContainer<K, V> wc) {
+        TopicPartition tp = toTP(wc.getCr());
+        if (!partitionsOverMetadataBudget.contains(tp)) {
+            return false;
+        }
+        var commitQueue = partitionCommitQueues.get(tp);
+        var lowestUncommitted = commitQueue == null ? null : commitQueue.firstEntry();
+        return lowestUncommitted != null
+                && wc.getCr().offset() - lowestUncommitted.getKey() >= maxOffsetsEncodableInMetadata;
+    }
+
     public void success(WorkContainer<K, V> wc) {
-        workStateIsDirtyNeedsCommitting.set(true);
         ConsumerRecord<K, V> cr = wc.getCr();
         log.trace("Work success ({}), removing from processing shard queue", wc);
         wc.succeed();
+        inFlightCount--;
+        if (isFromRevokedPartition(wc)) {
+            log.debug("Work completed for a partition which has since been revoked, dropping ({})", wc);
+            return;
+        }
         Object key = computeShardKey(cr);
         // remove from processing queues
         NavigableMap<Long, WorkContainer<K, V>> shard = processingShards.get(key);
@@ -381,9 +659,92 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
         if (keyOrdering && shard.isEmpty()) {
             log.debug("Removing empty shard (key: {})", key);
             processingShards.remove(key);
+            rateLimiter.onShardRemoved(key);
         }
         successfulWorkListeners.forEach((c) -> c.accept(wc)); // notify listeners
-        inFlightCount--;
+        onProgress(toTP(cr));
+    }
+
+    private void onProgress(TopicPartition tp) {
+        partitionsWithUncommittedProgress.add(tp);
+        partitionRecordsCompletedSinceCommit.computeIfAbsent(tp, ignore -> new AtomicInteger()).incrementAndGet();
+        recordsCompletedSinceCommit.incrementAndGet();
+        int offsetAdvanceThreshold = options.getCommitAfterOffsetAdvance();
+        if (offsetAdvanceThreshold > 0 && !partitionsPastOffsetAdvanceThreshold.contains(tp)) {
+            long advance = getCommittableOffsetAdvance(tp);
+            if (advance >= offsetAdvanceThreshold) {
+                log.debug("Committable offset of {} has advanced by {} since last commit, commit threshold ({}) reached", tp, advance, offsetAdvanceThreshold);
+                partitionsPastOffsetAdvanceThreshold.add(tp);
+            }
+        }
+    }
+
+    /**
+     * The partition is being committed (or is gone), so its progress no longer counts towards a commit being due
+     */
+    private void resetCommitProgress(TopicPartition tp) {
+        AtomicInteger completed = partitionRecordsCompletedSinceCommit.get(tp);
+        if (completed != null) {
+            recordsCompletedSinceCommit.addAndGet(-completed.getAndSet(0));
+        }
+        partitionsPastOffsetAdvanceThreshold.remove(tp);
+    }
+
+    /**
+     * Walks the partition's succeeded work from the head of the queue only - so is bounded by the threshold, as it's
+     * not walked again once the threshold is reached.
+     */
+    private long getCommittableOffsetAdvance(TopicPartition tp) {
+        NavigableMap<Long, WorkContainer<K, V>> commitQueue = partitionCommitQueues.get(tp);
+        if (commitQueue == null || commitQueue.isEmpty()) {
+            return 0;
+        }
+        OffsetAndMetadata lastCommitted = partitionLastCommitted.get(tp);
+        long base = lastCommitted == null ? commitQueue.firstKey() : lastCommitted.offset();
+        long committable = base;
+        for (WorkContainer<K, V> work : commitQueue.values()) {
+            if (!work.isUserFunctionSucceeded()) {
+                break;
+            }
+            committable = work.getCr().offset() + 1;
+        }
+        return committable - base;
+    }
+
+    /**
+     * @return true if enough progress has been made since the last commit, that a commit should be made before the
+     *         commit interval is up
+     * @see ParallelConsumerOptions#getCommitAfterRecordsCompleted()
+     * @see ParallelConsumerOptions#getCommitAfterOffsetAdvance()
+     */
+    boolean isCommitProgressThresholdReached() {
+        int recordsThreshold = options.getCommitAfterRecordsCompleted();
+        boolean recordsThresholdReached = recordsThreshold > 0 && recordsCompletedSinceCommit.get() >= recordsThreshold;
+        return recordsThresholdReached || !partitionsPastOffsetAdvanceThreshold.isEmpty();
+    }
+
+    /**
+     * Work which was in flight when its partition was revoked will still complete - its result must not touch the
+     * shards, which may by now hold work for the same key from retained partitions, or from a reassignment of the same
+     * partition.
+     */
+    private boolean isFromRevokedPartition(WorkContainer<K, V> wc) {
+        // in flight work stays in its shard until it succeeds, unless its partition is revoked
+        NavigableMap<Long, WorkContainer<K, V>> shard = processingShards.get(computeShardKey(wc.getCr()));
+        return shard == null || shard.get(wc.getCr().offset()) != wc;
+    }
+
+    /**
+     * Feed the result of the user function to the circuit breaker
+     *
+     * @see CircuitBreaker
+     */
+    void onUserFunctionResult(WorkContainer<K, V> wc, boolean succeeded) {
+        circuitBreaker.onResult(wc, succeeded, clock.getNow());
+    }
+
+    CircuitBreaker.State getCircuitBreakerState() {
+        return circuitBreaker.getState();
     }
 
     public void failed(WorkContainer<K, V> wc) {
@@ -395,13 +756,17 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      * Idempotent - work may have not been removed, either way it's put back
      */
     private void putBack(WorkContainer<K, V> wc) {
+        inFlightCount--;
+        if (isFromRevokedPartition(wc)) {
+            log.debug("Work failed for a partition which has since been revoked, dropping ({})", wc);
+            return;
+        }
         log.debug("Work FAILED, returning to shard");
         ConsumerRecord<K, V> cr = wc.getCr();
         Object key = computeShardKey(cr);
         var shard = processingShards.get(key);
         long offset = wc.getCr().offset();
         shard.put(offset, wc);
-        inFlightCount--;
     }
 
     public int getPartitionWorkRemainingCount() {
@@ -413,7 +778,7 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     }
 
     public int getWorkRemainingCount() {
-        return getMappedShardWorkRemainingCount() + workInbox.stream().map(x -> x.count()).reduce(0, (a, b) -> a + b);
+        return getMappedShardWorkRemainingCount() + getRecordsAwaitingOffsetMapCount() + workInbox.stream().map(x -> x.count()).reduce(0, (a, b) -> a + b);
     }
 
     public int getMappedShardWorkRemainingCount() {
@@ -426,7 +791,7 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
 
     boolean isRecordsAwaitingProcessing() {
         int partitionWorkRemainingCount = getMappedShardWorkRemainingCount();
-        return partitionWorkRemainingCount > 0 || !workInbox.isEmpty();
+        return partitionWorkRemainingCount > 0 || !workInbox.isEmpty() || !recordsAwaitingOffsetMap.isEmpty();
     }
 
     boolean isRecordsAwaitingToBeCommitted() {
@@ -435,18 +800,29 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
         return partitionWorkRemainingCount > 0;
     }
 
-    public WorkContainer<K, V> getWorkContainerForRecord(ConsumerRecord<K, V> rec) {
-        Object key = computeShardKey(rec);
-        var longWorkContainerTreeMap = this.processingShards.get(key);
-        long offset = rec.offset();
-        WorkContainer<K, V> wc = longWorkContainerTreeMap.get(offset);
-        return wc;
-    }
-
     Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsAndRemove() {
         return findCompletedEligibleOffsetsAndRemove(true);
     }
 
+    /**
+     * @param partitionFilter only scan the partitions matching - for when the committer is only responsible for some
+     *                        of the partitions
+     */
+    Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsAndRemove(Predicate<TopicPartition> partitionFilter) {
+        return findCompletedEligibleOffsetsAndRemove(true, true, partitionFilter);
+    }
+
+    /**
+     * Find the offsets to commit, but leave the completed work in place until the commit is acknowledged - for when
+     * commits are acknowledged asynchronously, so that if the commit fails, the work is still there to be committed
+     * again.
+     *
+     * @see #onOffsetCommitAcknowledged
+     */
+    Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsToCommit(Predicate<TopicPartition> partitionFilter) {
+        return findCompletedEligibleOffsetsAndRemove(false, true, partitionFilter);
+    }
+
     /**
      * Expensive operation to see if anything is committable.
      * <p>
@@ -463,13 +839,30 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      * todo: refactor into smaller methods?
      */
     <R> Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsAndRemove(boolean remove) {
+        return findCompletedEligibleOffsetsAndRemove(remove, remove, tp -> true);
+    }
+
+    /**
+     * @param remove    remove the completed work found
+     * @param committing the offsets found are going to be committed, so reset the progress tracking
+     */
+    private Map<TopicPartition, OffsetAndMetadata> findCompletedEligibleOffsetsAndRemove(boolean remove, boolean committing, Predicate<TopicPartition> partitionFilter) {
         Map<TopicPartition, OffsetAndMetadata> offsetsToSend = new HashMap<>();
         int count = 0;
         int removed = 0;
         log.trace("Scanning for in order in-flight work that has completed...");
-        int totalOffsetMetaCharacterLength = 0;
         for (final var partitionQueueEntry : partitionCommitQueues.entrySet()) {
             TopicPartition topicPartitionKey = partitionQueueEntry.getKey();
+            if (!partitionFilter.test(topicPartitionKey)) {
+                continue;
+            }
+            if (committing) {
+                resetCommitProgress(topicPartitionKey);
+            }
+            if (committing ? !partitionsWithUncommittedProgress.remove(topicPartitionKey) : !partitionsWithUncommittedProgress.contains(topicPartitionKey)) {
+                log.trace("No progress on {} since last commit, skipping", topicPartitionKey);
+                continue;
+            }
             log.trace("Starting scan of partition: {}", topicPartitionKey);
             var partitionQueue = partitionQueueEntry.getValue();
             count += partitionQueue.size();
@@ -514,7 +907,7 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
 
             // offset map building
             // Get final offset data, build the the offset map, and replace it in our map of offset data to send
-            // TODO potential optimisation: store/compare the current incomplete offsets to the last committed ones, to know if this step is needed or not (new progress has been made)
+            // only partitions which have made progress since the last commit are scanned, so this is only done when needed
             if (!incompleteOffsets.isEmpty()) {
                 long offsetOfNextExpectedMessage;
                 OffsetAndMetadata finalOffsetOnly = offsetsToSend.get(topicPartitionKey);
@@ -525,17 +918,34 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
                     offsetOfNextExpectedMessage = finalOffsetOnly.offset();
                 }
 
-                OffsetMapCodecManager<K, V> om = new OffsetMapCodecManager<>(this, this.consumer);
-                try {
-                    String offsetMapPayload = om.makeOffsetMetadataPayload(offsetOfNextExpectedMessage, topicPartitionKey, incompleteOffsets);
-                    totalOffsetMetaCharacterLength += offsetMapPayload.length();
-                    OffsetAndMetadata offsetWithExtraMap = new OffsetAndMetadata(offsetOfNextExpectedMessage, offsetMapPayload);
-                    offsetsToSend.put(topicPartitionKey, offsetWithExtraMap);
-                } catch (EncodingNotSupportedException e) {
-                    log.warn("No encodings could be used to encode the offset map, skipping. Warning: messages might be replayed on rebalance", e);
+                // the map only needs to reach the highest offset which isn't incomplete - the incomplete tail after it
+                // (typically records not yet taken as work) is processed as new records when the map is loaded. This
+                // keeps maps within reach of the budget derived limit on how far beyond the committed offset work is taken.
+                long highestTrackedOffset = partitionOffsetHighWaterMarks.get(topicPartitionKey);
+                while (highestTrackedOffset >= offsetOfNextExpectedMessage && incompleteOffsets.contains(highestTrackedOffset)) {
+                    highestTrackedOffset--;
+                }
+
+                if (highestTrackedOffset < offsetOfNextExpectedMessage) {
+                    log.trace("Nothing complete beyond the committable offset of {}, no offset map needed", topicPartitionKey);
+                    offsetsToSend.put(topicPartitionKey, new OffsetAndMetadata(offsetOfNextExpectedMessage));
+                } else {
+                    try {
+                        String offsetMapPayload = encodeOffsetMap(topicPartitionKey, offsetOfNextExpectedMessage, highestTrackedOffset + 1, incompleteOffsets);
+                        OffsetAndMetadata offsetWithExtraMap = new OffsetAndMetadata(offsetOfNextExpectedMessage, offsetMapPayload);
+                        offsetsToSend.put(topicPartitionKey, offsetWithExtraMap);
+                    } catch (EncodingNotSupportedException e) {
+                        log.warn("No encodings could be used to encode the offset map, skipping. Warning: messages might be replayed on rebalance", e);
+                    }
                 }
             }
 
+            OffsetAndMetadata toSend = offsetsToSend.get(topicPartitionKey);
+            if (toSend != null && toSend.equals(partitionLastCommitted.get(topicPartitionKey))) {
+                log.trace("Offset data for {} unchanged since last commit, skipping", topicPartitionKey);
+                offsetsToSend.remove(topicPartitionKey);
+            }
+
             if (remove) {
                 removed += workToRemove.size();
                 for (var workContainer : workToRemove) {
@@ -545,7 +955,7 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
             }
         }
 
-        maybeStripOffsetPayload(offsetsToSend, totalOffsetMetaCharacterLength);
+        maybeStripOffsetPayload(offsetsToSend);
 
         log.debug("Scan finished, {} were in flight, {} completed offsets removed, coalesced to {} offset(s) ({}) to be committed",
                 count, removed, offsetsToSend.size(), offsetsToSend);
@@ -553,34 +963,79 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     }
 
     /**
-     * Once all the offset maps have been calculated, check if they're too big, and if so, remove all of them.
+     * Encodes the offset map, or reuses the last one encoded for the partition if the state it covers hasn't changed
+     *
+     * @see OffsetMapFingerprint
+     */
+    private String encodeOffsetMap(TopicPartition tp, long baseOffset, long nextExpectedOffset, Set<Long> incompleteOffsets) throws EncodingNotSupportedException {
+        OffsetMapFingerprint fingerprint = OffsetMapFingerprint.of(baseOffset, nextExpectedOffset, incompleteOffsets);
+        var lastEncoded = partitionLastEncodedOffsetMap.get(tp);
+        if (lastEncoded != null && lastEncoded.getLeft().equals(fingerprint)) {
+            log.trace("Offset map state for {} unchanged, reusing its last encoding", tp);
+            return lastEncoded.getRight();
+        }
+        OffsetMapCodecManager<K, V> om = new OffsetMapCodecManager<>(this, this.consumer);
+        String payload = om.makeOffsetMetadataPayload(baseOffset, nextExpectedOffset, incompleteOffsets);
+        partitionLastEncodedOffsetMap.put(tp, ParallelConsumer.Tuple.pairOf(fingerprint, payload));
+        return payload;
+    }
+
+    /**
+     * Once all the offset maps have been calculated, check each of them against the metadata budget, and move those
+     * which are too big into the {@link OffsetMapOverflowStore} if there is one, otherwise remove them.
      * <p>
-     * Implication of this is that if the system has to recover from this offset, then it will have to replay all the
-     * messages that were otherwise complete.
+     * The budget applies to each partition separately (as the broker checks the metadata of each partition), so a
+     * single large offset map doesn't affect the others.
+     * <p>
+     * Implication of removing them is that if the system has to recover from this offset, then it will have to replay
+     * all the messages in that partition that were otherwise complete.
      * <p>
      * Must be thread safe.
      *
      * @see OffsetMapCodecManager#DefaultMaxMetadataSize
+     * @see #isBeyondOffsetMapBudget
      */
-    private void maybeStripOffsetPayload(Map<TopicPartition, OffsetAndMetadata> offsetsToSend, int totalOffsetMetaCharacterLength) {
-        // TODO: Potential optimisation: if max metadata size is shared across partitions, the limit used could be relative to the number of
-        //  partitions assigned to this consumer. In which case, we could derive the limit for the number of downloaded but not committed
-        //  offsets, from this max over some estimate. This way we limit the possibility of hitting the hard limit imposed in the protocol, thus
-        //  retaining the offset map feature, at the cost of potential performance by hitting a soft maximum in our uncommitted concurrent processing.
-        if (totalOffsetMetaCharacterLength > OffsetMapCodecManager.DefaultMaxMetadataSize) {
-            log.warn("Offset map data too large (size: {}) to fit in metadata payload - stripping offset map out. " +
-                            "See kafka.coordinator.group.OffsetConfig#DefaultMaxMetadataSize = 4096",
-                    totalOffsetMetaCharacterLength);
-            // strip payload
-            for (var entry : offsetsToSend.entrySet()) {
-                TopicPartition key = entry.getKey();
-                OffsetAndMetadata v = entry.getValue();
-                OffsetAndMetadata stripped = new OffsetAndMetadata(v.offset()); // meta data gone
-                offsetsToSend.replace(key, stripped);
+    private void maybeStripOffsetPayload(Map<TopicPartition, OffsetAndMetadata> offsetsToSend) {
+        if (options.isUsingOffsetStore()) {
+            log.trace("Offset maps go to the offset store, which has no size limit");
+            return;
+        }
+        offsetsToSend.replaceAll(this::fitToMetadataBudget);
+    }
+
+    private OffsetAndMetadata fitToMetadataBudget(TopicPartition tp, OffsetAndMetadata offsetAndMetadata) {
+        String payload = offsetAndMetadata.metadata();
+        if (payload.length() <= OffsetMapCodecManager.DefaultMaxMetadataSize) {
+            partitionsOverMetadataBudget.remove(tp);
+            return offsetAndMetadata;
+        }
+
+        Optional<OffsetMapOverflowStore> store = getOffsetMapOverflowStore();
+        if (store.isPresent()) {
+            try {
+                String reference = OffsetMapCodecManager.OVERFLOW_REFERENCE_PREFIX + store.get().store(tp, offsetAndMetadata.offset(), payload);
+                log.debug("Offset map for {} ({} chars) moved to overflow store", tp, payload.length());
+                var referenced = new OffsetAndMetadata(offsetAndMetadata.offset(), reference);
+                partitionLastOverflowed.put(tp, ParallelConsumer.Tuple.pairOf(referenced, offsetAndMetadata));
+                return referenced;
+            } catch (Exception e) {
+                log.warn("Error storing offset map for {} in the overflow store", tp, e);
             }
-        } else {
-            log.debug("Offset map small enough to fit in payload: {} (max: {})", totalOffsetMetaCharacterLength, OffsetMapCodecManager.DefaultMaxMetadataSize);
         }
+
+        log.warn("Offset map data for {} too large (size: {}) to fit in metadata payload - stripping offset map out. " +
+                        "See kafka.coordinator.group.OffsetConfig#DefaultMaxMetadataSize = {}",
+                tp, payload.length(), OffsetMapCodecManager.DefaultMaxMetadataSize);
+        partitionsOverMetadataBudget.add(tp);
+        return new OffsetAndMetadata(offsetAndMetadata.offset()); // meta data gone
+    }
+
+    Optional<OffsetMapOverflowStore> getOffsetMapOverflowStore() {
+        return options.getOffsetMapOverflowStore();
+    }
+
+    ParallelConsumerOptions.OffsetMapTextEncoding getOffsetMapTextEncoding() {
+        return options.getOffsetMapTextEncoding();
     }
 
     /**
@@ -591,19 +1046,62 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
      * offset.
      */
     public void onOffsetCommitSuccess(Map<TopicPartition, OffsetAndMetadata> offsetsToSend) {
-        // partitionOffsetHighWaterMarks this will get overwritten in due course
         offsetsToSend.forEach((tp, meta) -> {
-            Set<Long> offsets = partitionIncompleteOffsets.get(tp);
-            boolean trackedOffsetsForThisPartitionExist = offsets != null;
-            if (trackedOffsetsForThisPartitionExist) {
-                long newLowWaterMark = meta.offset();
-                offsets.removeIf(offset -> offset < newLowWaterMark);
-            }
+            // remember overflowed maps as they were encoded, not by reference, so unchanged maps aren't stored again
+            var lastOverflowed = partitionLastOverflowed.get(tp);
+            boolean overflowed = lastOverflowed != null && lastOverflowed.getLeft().equals(meta);
+            partitionLastCommitted.put(tp, overflowed ? lastOverflowed.getRight() : meta);
         });
+        getOffsetMapOverflowStore().ifPresent(store -> offsetsToSend.forEach((tp, meta) ->
+                store.onCommitted(tp, meta.offset(), OffsetMapCodecManager.getOverflowReference(meta.metadata()))));
+        // partitionOffsetHighWaterMarks this will get overwritten in due course
+        offsetsToSend.forEach((tp, meta) -> partitionIncompleteOffsets.computeIfPresent(tp, (ignore, offsets) -> {
+            long newLowWaterMark = meta.offset();
+            int searchResult = Arrays.binarySearch(offsets, newLowWaterMark);
+            int firstRetained = searchResult >= 0 ? searchResult : -(searchResult + 1);
+            return firstRetained == 0 ? offsets : Arrays.copyOfRange(offsets, firstRetained, offsets.length);
+        }));
+    }
+
+    /**
+     * An asynchronous commit has been acknowledged, so the completed work below the committed offsets can now be
+     * removed.
+     *
+     * @see #findCompletedEligibleOffsetsToCommit
+     */
+    public void onOffsetCommitAcknowledged(Map<TopicPartition, OffsetAndMetadata> committed) {
+        int removed = 0;
+        for (var entry : committed.entrySet()) {
+            TopicPartition tp = entry.getKey();
+            NavigableMap<Long, WorkContainer<K, V>> commitQueue = partitionCommitQueues.get(tp);
+            if (commitQueue == null) {
+                log.debug("Commit acknowledged for {}, which has since been revoked", tp);
+                continue;
+            }
+            // everything below the committed offset has succeeded, by definition of the committed offset
+            var completed = commitQueue.headMap(entry.getValue().offset());
+            removed += completed.size();
+            completed.clear();
+            OffsetAndMetadata previous = partitionLastCommitted.get(tp);
+            if (previous != null && previous.offset() > entry.getValue().offset()) {
+                // acknowledgements arrive in order, but guard against going backwards anyway
+                continue;
+            }
+            onOffsetCommitSuccess(UniMaps.of(tp, entry.getValue()));
+        }
+        log.debug("Commit acknowledged, removed {} completed offsets: {}", removed, committed);
+    }
+
+    /**
+     * The commit didn't make it, so the partitions need committing again
+     */
+    public void onOffsetCommitFailure(Map<TopicPartition, OffsetAndMetadata> offsetsToSend) {
+        partitionsWithUncommittedProgress.addAll(offsetsToSend.keySet());
     }
 
     public boolean shouldThrottle() {
-        return isSufficientlyLoaded();
+        // no point fetching more while the downstream is failing - but half open, the probes need records to send
+        return isSufficientlyLoaded() || circuitBreaker.isOpen();
     }
 
     boolean isSufficientlyLoaded() {
@@ -617,6 +1115,14 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
         return remainingIsSufficient;
     }
 
+    /**
+     * @return if work was held back by a rate limit during the last {@link #maybeGetWork}, how long until it could be
+     *         released
+     */
+    Optional<Duration> getTimeUntilRateLimitPermits() {
+        return rateLimiter.getTimeUntilNextPermit(clock.getNow());
+    }
+
     public int getInFlightCount() {
         return inFlightCount;
     }
@@ -639,6 +1145,6 @@ public class WorkManager<K, V> implements ConsumerRebalanceListener {
     }
 
     private boolean isDirty() {
-        return this.workStateIsDirtyNeedsCommitting.get();
+        return !partitionsWithUncommittedProgress.isEmpty();
     }
 }
@@ -0,0 +1,128 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static io.confluent.csid.utils.BackportUtils.isEmpty;
+
+/**
+ * Applies the rate limits configured in {@link ParallelConsumerOptions} to work as it's handed out by the {@link
+ * WorkManager}.
+ * <p>
+ * A record must get a permit from every applicable limit (global, its topic and its shard) before it can be taken as
+ * work. Permits are only taken once all limits agree, so a record refused by one limit doesn't use up capacity in the
+ * others. Refused records simply stay queued in their shard, to be tried again on a later pass.
+ * <p>
+ * Not thread safe - only used from the control thread.
+ *
+ * @see ParallelConsumerOptions#getMaxRecordsPerSecond()
+ * @see ParallelConsumerOptions#getMaxRecordsPerSecondPerTopic()
+ * @see ParallelConsumerOptions#getMaxRecordsPerSecondPerShard()
+ */
+@Slf4j
+class WorkRateLimiter {
+
+    enum Permit {
+        GRANTED,
+        /**
+         * The record's topic or shard is over its rate, others may still proceed
+         */
+        SHARD_LIMITED,
+        /**
+         * The global rate is used up, nothing else can proceed
+         */
+        GLOBALLY_LIMITED
+    }
+
+    private final Optional<TokenBucket> global;
+
+    private final Map<String, TokenBucket> perTopic = new HashMap<>();
+
+    private final int perShardRate;
+
+    private final Map<Object, TokenBucket> perShard = new HashMap<>();
+
+    /**
+     * The earliest time that a refused record could next get a permit
+     */
+    private Optional<Instant> nextPermitAt = Optional.empty();
+
+    WorkRateLimiter(ParallelConsumerOptions<?, ?> options) {
+        int globalRate = options.getMaxRecordsPerSecond();
+        this.global = globalRate > 0 ? Optional.of(new TokenBucket(globalRate)) : Optional.empty();
+        options.getMaxRecordsPerSecondPerTopic().forEach((topic, rate) -> perTopic.put(topic, new TokenBucket(rate)));
+        this.perShardRate = options.getMaxRecordsPerSecondPerShard();
+    }
+
+    boolean isEnabled() {
+        return global.isPresent() || !perTopic.isEmpty() || perShardRate > 0;
+    }
+
+    /**
+     * Start of a new work retrieval pass - forget about previous refusals.
+     */
+    void resetRefusals() {
+        nextPermitAt = Optional.empty();
+    }
+
+    Permit tryAcquire(Object shardKey, String topic, Instant now) {
+        if (global.isPresent() && !global.get().hasPermit(now)) {
+            onRefused(global.get(), now);
+            return Permit.GLOBALLY_LIMITED;
+        }
+
+        TokenBucket topicBucket = perTopic.get(topic);
+        if (topicBucket != null && !topicBucket.hasPermit(now)) {
+            onRefused(topicBucket, now);
+            return Permit.SHARD_LIMITED;
+        }
+
+        TokenBucket shardBucket = null;
+        if (perShardRate > 0) {
+            shardBucket = perShard.computeIfAbsent(shardKey, ignore -> new TokenBucket(perShardRate));
+            if (!shardBucket.hasPermit(now)) {
+                onRefused(shardBucket, now);
+                return Permit.SHARD_LIMITED;
+            }
+        }
+
+        global.ifPresent(TokenBucket::take);
+        if (topicBucket != null) topicBucket.take();
+        if (shardBucket != null) shardBucket.take();
+        return Permit.GRANTED;
+    }
+
+    private void onRefused(TokenBucket bucket, Instant now) {
+        Instant permitAt = now.plus(bucket.timeUntilNextPermit(now));
+        log.trace("Rate limit ({}/s) reached, next permit at {}", bucket.getPermitsPerSecond(), permitAt);
+        if (isEmpty(nextPermitAt) || permitAt.isBefore(nextPermitAt.get())) {
+            nextPermitAt = Optional.of(permitAt);
+        }
+    }
+
+    /**
+     * @return if records were refused during the last pass, how long until the earliest of them could get a permit
+     */
+    Optional<Duration> getTimeUntilNextPermit(Instant now) {
+        return nextPermitAt.map(at -> {
+            Duration wait = Duration.between(now, at);
+            return wait.isNegative() ? Duration.ZERO : wait;
+        });
+    }
+
+    /**
+     * Garbage collect the limiter for a shard which has gone away
+     */
+    void onShardRemoved(Object shardKey) {
+        perShard.remove(shardKey);
+    }
+}
@@ -0,0 +1,125 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import lombok.SneakyThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static io.confluent.csid.utils.BackportUtils.readFully;
+import static io.confluent.csid.utils.StringUtils.msg;
+
+/**
+ * Zstd, with a dictionary trained on encoded offset maps - the dictionary primes zstd with the byte patterns and
+ * entropy statistics typical of offset maps, which small inputs are too short to establish for themselves.
+ * <p>
+ * Frames are written without their content size or dictionary id, as the envelope records the length and the codec id
+ * identifies the dictionary. A new dictionary must therefore be a new codec, with a new id.
+ * <p>
+ * Compression and decompression contexts hold native memory, so rather than one per thread (commits are made from
+ * many, e.g. the common pool and the producer pool), a few are pooled with the dictionary loaded, and any beyond that
+ * are closed after use.
+ *
+ * @see OffsetMapCompressionCodecs
+ */
+class ZstdDictionaryCodec implements OffsetMapCompressionCodec {
+
+    static final byte ID = (byte) 'z';
+
+    /**
+     * Trained with {@code OffsetMapDictionaryTrainer} (in the tests), on the smallest encodings of synthetic offset maps
+     */
+    static final String DICTIONARY_RESOURCE = "offset-map-v1.zstd-dict";
+
+    /**
+     * zstd's default - offset maps are small, so higher levels gain little
+     */
+    private static final int LEVEL = 3;
+
+    /**
+     * Beyond this many idle contexts of each kind, contexts are closed after use
+     */
+    private static final int MAX_IDLE_CONTEXTS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final ZstdDictCompress compressDictionary;
+
+    private final ZstdDictDecompress decompressDictionary;
+
+    private final BlockingQueue<ZstdCompressCtx> idleCompressContexts = new ArrayBlockingQueue<>(MAX_IDLE_CONTEXTS);
+
+    private final BlockingQueue<ZstdDecompressCtx> idleDecompressContexts = new ArrayBlockingQueue<>(MAX_IDLE_CONTEXTS);
+
+    ZstdDictionaryCodec() {
+        byte[] dictionary = loadDictionary();
+        this.compressDictionary = new ZstdDictCompress(dictionary, LEVEL);
+        this.decompressDictionary = new ZstdDictDecompress(dictionary);
+    }
+
+    @SneakyThrows
+    private static byte[] loadDictionary() {
+        try (InputStream in = ZstdDictionaryCodec.class.getResourceAsStream(DICTIONARY_RESOURCE)) {
+            if (in == null) {
+                throw new IOException(msg("Offset map dictionary {} missing from the classpath", DICTIONARY_RESOURCE));
+            }
+            return readFully(in);
+        }
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public int maxCompressedLength(int inputLength) {
+        return (int) Zstd.compressBound(inputLength);
+    }
+
+    @Override
+    public int compress(byte[] input, byte[] output, int outputOffset) {
+        ZstdCompressCtx context = idleCompressContexts.poll();
+        if (context == null) {
+            context = new ZstdCompressCtx()
+                    .setLevel(LEVEL)
+                    .setContentSize(false)
+                    .setDictID(false)
+                    .loadDict(compressDictionary);
+        }
+        try {
+            return context.compressByteArray(output, outputOffset, output.length - outputOffset, input, 0, input.length);
+        } finally {
+            if (!idleCompressContexts.offer(context)) {
+                context.close();
+            }
+        }
+    }
+
+    @Override
+    public void decompress(byte[] input, int inputOffset, int inputLength, byte[] output) {
+        ZstdDecompressCtx context = idleDecompressContexts.poll();
+        if (context == null) {
+            context = new ZstdDecompressCtx().loadDict(decompressDictionary);
+        }
+        int decompressed;
+        try {
+            decompressed = context.decompressByteArray(output, 0, output.length, input, inputOffset, inputLength);
+        } finally {
+            if (!idleDecompressContexts.offer(context)) {
+                context.close();
+            }
+        }
+        if (decompressed != output.length) {
+            throw new IllegalArgumentException(msg("Decompressed {} bytes, expected {}", decompressed, output.length));
+        }
+    }
+}
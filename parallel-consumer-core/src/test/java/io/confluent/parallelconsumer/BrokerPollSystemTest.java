@@ -0,0 +1,141 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import lombok.SneakyThrows;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import pl.tlinkowski.unij.api.UniMaps;
+import pl.tlinkowski.unij.api.UniSets;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static io.confluent.parallelconsumer.BrokerPollSystem.MIN_PAUSED_POLL_TIMEOUT;
+import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.CONSUMER_SYNC;
+import static java.time.Duration.ofMillis;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * @see BrokerPollSystem
+ */
+class BrokerPollSystemTest {
+
+    ConsumerManager<String, String> consumerManager = mock(ConsumerManager.class);
+
+    WorkManager<String, String> wm = mock(WorkManager.class);
+
+    ParallelEoSStreamProcessor<String, String> pc = mock(ParallelEoSStreamProcessor.class);
+
+    BrokerPollSystem<String, String> poller;
+
+    Duration originalLongPollTimeout = BrokerPollSystem.getLongPollTimeout();
+
+    /**
+     * For stepping the poller a poll at a time - see {@link #stepPolls()}
+     */
+    BlockingQueue<Duration> pollsEntered = new LinkedBlockingQueue<>();
+
+    Semaphore pollsAllowed = new Semaphore(0);
+
+    @BeforeEach
+    void setup() {
+        BrokerPollSystem.setLongPollTimeout(ofMillis(100));
+        when(consumerManager.poll(any())).thenReturn(new ConsumerRecords<>(UniMaps.of()));
+        when(consumerManager.assignment()).thenReturn(UniSets.of());
+        when(consumerManager.paused()).thenReturn(UniSets.of());
+        var options = ParallelConsumerOptions.<String, String>builder().commitMode(CONSUMER_SYNC).build();
+        poller = new BrokerPollSystem<>(consumerManager, wm, pc, options);
+    }
+
+    @AfterEach
+    @SneakyThrows
+    void close() {
+        pollsAllowed.release(Integer.MAX_VALUE / 2);
+        poller.closeAndWait();
+        BrokerPollSystem.setLongPollTimeout(originalLongPollTimeout);
+    }
+
+    @Test
+    void pausedPollTimeoutBacksOffThenResetsOnResume() {
+        when(wm.shouldThrottle()).thenReturn(true);
+        poller.start();
+
+        // while paused, the timeout backs off up to the long poll timeout
+        verify(consumerManager, timeout(5000).atLeast(6)).poll(any());
+        var captor = ArgumentCaptor.forClass(Duration.class);
+        verify(consumerManager, atLeast(6)).poll(captor.capture());
+        List<Duration> timeouts = captor.getAllValues();
+        assertThat(timeouts.subList(0, 6)).containsExactly(MIN_PAUSED_POLL_TIMEOUT, ofMillis(20), ofMillis(40),
+                ofMillis(80), ofMillis(100), ofMillis(100));
+
+        // demand returns - resumes without being woken, and goes back to long polling
+        when(wm.shouldThrottle()).thenReturn(false);
+        verify(consumerManager, timeout(5000)).resume(any());
+        clearInvocations(consumerManager);
+        verify(consumerManager, timeout(5000).atLeastOnce()).poll(ofMillis(100));
+        verify(consumerManager, never()).poll(MIN_PAUSED_POLL_TIMEOUT);
+    }
+
+    @Test
+    void onlyWakesUpWhenPausedAndShouldResume() {
+        stepPolls();
+        when(wm.shouldThrottle()).thenReturn(false);
+        poller.start();
+        awaitPoll();
+
+        // running, so no need to be woken
+        poller.wakeupIfPausedAndShouldResume();
+        verify(consumerManager, never()).wakeup();
+
+        // paused, and stays paused
+        when(wm.shouldThrottle()).thenReturn(true);
+        allowPoll();
+        awaitPoll();
+        verify(consumerManager).pause(any());
+        poller.wakeupIfPausedAndShouldResume();
+        verify(consumerManager, never()).wakeup();
+
+        // paused, and demand returns - woken from the paused poll
+        when(wm.shouldThrottle()).thenReturn(false);
+        poller.wakeupIfPausedAndShouldResume();
+        verify(consumerManager, times(1)).wakeup();
+
+        // resumed, so no more need to be woken
+        allowPoll();
+        awaitPoll();
+        verify(consumerManager).resume(any());
+        poller.wakeupIfPausedAndShouldResume();
+        verify(consumerManager, times(1)).wakeup();
+    }
+
+    /**
+     * Each poll blocks until allowed by {@link #allowPoll()}, so the poller's state can be checked between polls
+     */
+    private void stepPolls() {
+        when(consumerManager.poll(any())).thenAnswer(invocation -> {
+            pollsEntered.add(invocation.getArgument(0));
+            pollsAllowed.acquire();
+            return new ConsumerRecords<>(UniMaps.of());
+        });
+    }
+
+    @SneakyThrows
+    private void awaitPoll() {
+        assertThat(pollsEntered.poll(5, SECONDS)).as("poller entered poll").isNotNull();
+    }
+
+    private void allowPoll() {
+        pollsAllowed.release();
+    }
+}
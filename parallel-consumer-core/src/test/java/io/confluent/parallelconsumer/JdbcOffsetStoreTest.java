@@ -0,0 +1,134 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pl.tlinkowski.unij.api.UniLists;
+import pl.tlinkowski.unij.api.UniMaps;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.*;
+
+/**
+ * @see JdbcOffsetStore
+ */
+class JdbcOffsetStoreTest {
+
+    DataSource dataSource = mock(DataSource.class);
+
+    Connection connection = mock(Connection.class);
+
+    PreparedStatement update = mock(PreparedStatement.class);
+
+    PreparedStatement insert = mock(PreparedStatement.class);
+
+    PreparedStatement select = mock(PreparedStatement.class);
+
+    TopicPartition existing = new TopicPartition("topic", 0);
+
+    TopicPartition missing = new TopicPartition("topic", 1);
+
+    @BeforeEach
+    void setup() throws SQLException {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getAutoCommit()).thenReturn(true);
+        when(connection.prepareStatement(startsWith("UPDATE offsets "))).thenReturn(update);
+        when(connection.prepareStatement(startsWith("INSERT INTO offsets "))).thenReturn(insert);
+        when(connection.prepareStatement(startsWith("SELECT "))).thenReturn(select);
+    }
+
+    @Test
+    void tableNamesAreValidated() {
+        assertThat(new JdbcOffsetStore(dataSource, "group").getTableName()).isEqualTo(JdbcOffsetStore.DEFAULT_TABLE_NAME);
+        assertThat(new JdbcOffsetStore(dataSource, "group", "schema.offsets_1").getTableName()).isEqualTo("schema.offsets_1");
+
+        for (String invalid : new String[]{"", "1offsets", "offsets; DROP TABLE users", "offsets --", "\"offsets\""}) {
+            assertThatThrownBy(() -> new JdbcOffsetStore(dataSource, "group", invalid))
+                    .as(invalid)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void updatesExistingRowsAndInsertsMissingOnesInOneTransaction() throws SQLException {
+        // first partition's row exists, second's doesn't
+        when(update.executeUpdate()).thenReturn(1, 0);
+        Map<TopicPartition, OffsetAndMetadata> offsets = new LinkedHashMap<>();
+        offsets.put(existing, new OffsetAndMetadata(10, "map-0"));
+        offsets.put(missing, new OffsetAndMetadata(20, "map-1"));
+
+        new JdbcOffsetStore(dataSource, "group", "offsets").commit(offsets);
+
+        verify(update).setLong(1, 10);
+        verify(update).setString(2, "map-0");
+        verify(update).setLong(1, 20);
+        verify(update).setString(2, "map-1");
+        verify(update, times(2)).setString(3, "group");
+        verify(update, times(2)).executeUpdate();
+
+        // only the missing row is inserted
+        verify(insert).setString(1, "group");
+        verify(insert).setString(2, "topic");
+        verify(insert).setInt(3, 1);
+        verify(insert).setLong(4, 20);
+        verify(insert).setString(5, "map-1");
+        verify(insert, times(1)).executeUpdate();
+
+        var inOrder = inOrder(connection);
+        inOrder.verify(connection).setAutoCommit(false);
+        inOrder.verify(connection).commit();
+        inOrder.verify(connection).setAutoCommit(true);
+        inOrder.verify(connection).close();
+        verify(connection, never()).rollback();
+    }
+
+    @Test
+    void failedWritesAreRolledBack() throws SQLException {
+        var failure = new SQLException("Boom");
+        when(update.executeUpdate()).thenThrow(failure);
+
+        var store = new JdbcOffsetStore(dataSource, "group", "offsets");
+        assertThatThrownBy(() -> store.commit(UniMaps.of(existing, new OffsetAndMetadata(10, "map-0"))))
+                .isSameAs(failure);
+
+        verify(connection).rollback();
+        verify(connection, never()).commit();
+        verify(connection).setAutoCommit(true);
+        verify(connection).close();
+        verify(insert, never()).executeUpdate();
+    }
+
+    @Test
+    void loadsOnlyStoredPartitions() throws SQLException {
+        ResultSet found = mock(ResultSet.class);
+        when(found.next()).thenReturn(true);
+        when(found.getLong(1)).thenReturn(10L);
+        when(found.getString(2)).thenReturn(null);
+        ResultSet notFound = mock(ResultSet.class);
+        when(select.executeQuery()).thenReturn(found, notFound);
+
+        var store = new JdbcOffsetStore(dataSource, "group", "offsets");
+        Map<TopicPartition, OffsetAndMetadata> loaded = store.load(new LinkedHashSet<>(UniLists.of(existing, missing)));
+
+        assertThat(loaded).containsOnlyKeys(existing).containsEntry(existing, new OffsetAndMetadata(10, ""));
+        verify(select, times(2)).setString(1, "group");
+        verify(select).setInt(3, 0);
+        verify(select).setInt(3, 1);
+    }
+}
@@ -0,0 +1,60 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @see LazyDeserialiser
+ */
+class LazyDeserialiserTest {
+
+    LazyDeserialiser<String, Integer> lazy = new LazyDeserialiser<>(new StringDeserializer(), new IntegerDeserializer());
+
+    @Test
+    void deserialisesKeepingMetadata() {
+        var headers = new RecordHeaders();
+        headers.add("h", "v".getBytes(UTF_8));
+        byte[] key = "key-1".getBytes(UTF_8);
+        byte[] value = {0, 0, 0, 42};
+        var raw = new ConsumerRecord<>("topic", 3, 10, 1234L, TimestampType.CREATE_TIME, null,
+                key.length, value.length, key, value, headers, Optional.of(7));
+
+        List<ConsumerRecord<String, Integer>> seen = new ArrayList<>();
+        lazy.wrap(seen::add).accept(raw);
+
+        assertThat(seen).hasSize(1);
+        ConsumerRecord<String, Integer> record = seen.get(0);
+        assertThat(record.key()).isEqualTo("key-1");
+        assertThat(record.value()).isEqualTo(42);
+        assertThat(record.topic()).isEqualTo("topic");
+        assertThat(record.partition()).isEqualTo(3);
+        assertThat(record.offset()).isEqualTo(10);
+        assertThat(record.timestamp()).isEqualTo(1234L);
+        assertThat(record.headers()).isEqualTo(headers);
+        assertThat(record.leaderEpoch()).contains(7);
+    }
+
+    @Test
+    void nullKey() {
+        var raw = new ConsumerRecord<byte[], byte[]>("topic", 0, 0, null, new byte[]{0, 0, 0, 1});
+
+        Integer result = lazy.wrapFunction(ConsumerRecord::value).apply(raw);
+
+        assertThat(result).isEqualTo(1);
+    }
+}
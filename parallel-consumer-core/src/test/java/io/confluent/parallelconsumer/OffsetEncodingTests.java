@@ -10,11 +10,15 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import pl.tlinkowski.unij.api.UniMaps;
 import pl.tlinkowski.unij.api.UniSets;
 
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 
@@ -97,6 +101,231 @@ public class OffsetEncodingTests extends ParallelEoSStreamProcessorTestBase {
         }
     }
 
+    /**
+     * A few stragglers far behind a large completed range - the delta varint encoding only grows with the number of
+     * incompletes, across varint byte boundaries
+     */
+    @SneakyThrows
+    @Test
+    void deltaVarIntIsSmallestForFewStragglersInALargeRange() {
+        long lowWaterMark = 1_000L;
+        long nextExpectedOffset = lowWaterMark + 1_000_000L;
+        var incompletes = new HashSet<>(UniSets.of(lowWaterMark, lowWaterMark + 1, lowWaterMark + 129, lowWaterMark + 16_514, lowWaterMark + 999_999));
+
+        OffsetSimultaneousEncoder encoder = new OffsetSimultaneousEncoder(lowWaterMark, nextExpectedOffset, incompletes).invoke();
+
+        byte[] smallestBytes = encoder.packSmallest();
+        EncodedOffsetPair unwrap = EncodedOffsetPair.unwrap(smallestBytes);
+        assertThat(unwrap.getEncoding()).isEqualTo(DeltaVarInt);
+        // magic byte, 3 byte length, gaps of 0, 0, 127, 16384, 983484 - 1, 1, 1, 3 and 3 bytes
+        assertThat(smallestBytes).hasSize(13);
+
+        ParallelConsumer.Tuple<Long, Set<Long>> decoded = unwrap.getDecodedIncompletes(lowWaterMark);
+        assertThat(decoded.getLeft()).isEqualTo(nextExpectedOffset);
+        assertThat(decoded.getRight()).containsExactlyInAnyOrderElementsOf(incompletes);
+    }
+
+    /**
+     * Only the encoder predicted to be smallest is run, and the prediction matches the smallest of all the encodings
+     */
+    @SneakyThrows
+    @Test
+    void predictedEncodingIsTheSmallest() {
+        OffsetSimultaneousEncoder.compressionForced = false;
+        int length = 10_000;
+        var random = new Random(0);
+
+        var sparse = new HashSet<>(UniSets.of(0L, 5_000L, 9_999L));
+        var randomPattern = new HashSet<Long>();
+        var blocks = new HashSet<Long>();
+        for (long offset = 0; offset < length; offset++) {
+            if (random.nextBoolean()) {
+                randomPattern.add(offset);
+            }
+            if (offset % 2_000 < 1_000) {
+                blocks.add(offset);
+            }
+        }
+
+        var expected = UniMaps.of(sparse, DeltaVarInt, randomPattern, BitSet, blocks, RunLength);
+        for (var entry : expected.entrySet()) {
+            Set<Long> incompletes = entry.getKey();
+            OffsetSimultaneousEncoder all = new OffsetSimultaneousEncoder(0, (long) length, incompletes).withAllEncoders().invoke();
+            EncodedOffsetPair smallest = all.getSortedEncodings().peek();
+            assertThat(smallest.getEncoding()).isEqualTo(entry.getValue());
+
+            OffsetSimultaneousEncoder predicted = new OffsetSimultaneousEncoder(0, (long) length, incompletes);
+            assertThat(predicted.predictEncodedSizes().get(0)).isEqualTo(entry.getValue());
+            predicted.invoke();
+            assertThat(predicted.getEncodingMap()).containsKey(entry.getValue());
+            assertThat(predicted.getSortedEncodings().peek().getEncoding()).isEqualTo(entry.getValue());
+        }
+    }
+
+    /**
+     * Encoding runs in bulk gives the same result as encoding each offset individually
+     */
+    @SneakyThrows
+    @Test
+    void bulkRunEncodingMatchesPerOffsetEncoding() {
+        int length = 5_000;
+        var random = new Random(0);
+        var incompletes = new HashSet<Long>();
+        for (long offset = 0; offset < length; offset++) {
+            // runs of varying lengths
+            if (random.nextInt(10) < 3 || incompletes.contains(offset - 1) && random.nextBoolean()) {
+                incompletes.add(offset);
+            }
+        }
+
+        OffsetSimultaneousEncoder bulk = new OffsetSimultaneousEncoder(0, (long) length, incompletes).withAllEncoders().invoke();
+
+        OffsetSimultaneousEncoder perOffset = new OffsetSimultaneousEncoder(0, (long) length, incompletes);
+        var encoders = of(new BitsetEncoder(length, perOffset, Version.v1), new BitsetEncoder(length, perOffset, Version.v2),
+                new RunLengthEncoder(perOffset, Version.v1), new RunLengthEncoder(perOffset, Version.v2),
+                new DeltaVarIntEncoder(length, perOffset));
+        for (var encoder : encoders) {
+            for (int rangeIndex = 0; rangeIndex < length; rangeIndex++) {
+                if (incompletes.contains((long) rangeIndex)) {
+                    encoder.encodeIncompleteOffset(rangeIndex);
+                } else {
+                    encoder.encodeCompletedOffset(rangeIndex);
+                }
+            }
+            assertThat(encoder.serialise()).as(encoder.getEncodingType().description())
+                    .isEqualTo(bulk.getEncodingMap().get(encoder.getEncodingType()));
+        }
+    }
+
+    @Test
+    void decodesToSortedPrimitiveIncompletes() {
+        long base = 1_000;
+        int length = 5_000;
+        var random = new Random(0);
+        var incompletes = new TreeSet<Long>();
+        for (long offset = base; offset < base + length; offset++) {
+            if (random.nextInt(10) < 2) {
+                incompletes.add(offset);
+            }
+        }
+        long[] expected = incompletes.stream().mapToLong(Long::longValue).toArray();
+
+        var encoder = new OffsetSimultaneousEncoder(base, base + length, incompletes).withAllEncoders().invoke();
+        assertThat(encoder.getEncodingMap()).isNotEmpty();
+        encoder.getEncodingMap().forEach((encoding, bytes) -> {
+            var decoded = new EncodedOffsetPair(encoding, ByteBuffer.wrap(bytes)).getDecodedIncompleteOffsets(base);
+            assertThat(decoded.getLeft()).as(encoding.description()).isEqualTo(base + length);
+            assertThat(decoded.getRight()).as(encoding.description()).containsExactly(expected);
+        });
+    }
+
+    @Test
+    void codecCompressedEnvelopesDecode() {
+        assertThat(OffsetMapCompressionCodecs.getCodecs()).extracting(OffsetMapCompressionCodec::getId)
+                .contains(ZstdDictionaryCodec.ID, Lz4Codec.ID);
+
+        long base = 100;
+        int length = 50_000;
+        var incompletes = new TreeSet<Long>();
+        for (long offset = base; offset < base + length; offset += 97) {
+            incompletes.add(offset);
+        }
+        long[] expected = incompletes.stream().mapToLong(Long::longValue).toArray();
+        var encoder = new OffsetSimultaneousEncoder(base, base + length, incompletes).withAllEncoders().invoke();
+        for (var codec : OffsetMapCompressionCodecs.getCodecs()) {
+            for (var encoding : of(BitSetV2, RunLengthV2, DeltaVarInt)) {
+                byte[] envelope = OffsetMapCompressionCodecs.compress(codec, encoding, encoder.getEncodingMap().get(encoding));
+                var decoded = new EncodedOffsetPair(CompressedEnvelope, ByteBuffer.wrap(envelope)).getDecodedIncompleteOffsets(base);
+                assertThat(decoded.getLeft()).isEqualTo(base + length);
+                assertThat(decoded.getRight()).as("%s with codec %s", encoding, codec.getId()).containsExactly(expected);
+            }
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    void dictionaryCompressesSmallMapsBetterThanZstdStream() {
+        var codec = new ZstdDictionaryCodec();
+        long streamTotal = 0;
+        long dictionaryTotal = 0;
+        for (byte[] sample : OffsetMapDictionaryTrainer.generateSamples(new Random(2), 200)) {
+            if (sample.length < 1_000) {
+                streamTotal += OffsetSimpleSerialisation.compressZstd(sample).length;
+                dictionaryTotal += OffsetMapCompressionCodecs.compress(codec, DeltaVarInt, sample).length;
+            }
+        }
+        log.info("Small maps compressed - zstd stream: {} bytes, with dictionary: {} bytes", streamTotal, dictionaryTotal);
+        assertThat(dictionaryTotal).isLessThan(streamTotal);
+    }
+
+    @Test
+    void corruptDeltaVarIntFailsToDecode() {
+        var corrupt = UniMaps.of(
+                "truncated varint", new byte[]{10, 2, (byte) 0x80},
+                "offset beyond the encoded range", new byte[]{10, 2, 8},
+                "negative length", new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F},
+                "varint too long", new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1});
+        corrupt.forEach((description, encoded) -> {
+            var pair = new EncodedOffsetPair(DeltaVarInt, ByteBuffer.wrap(encoded));
+            assertThatThrownBy(() -> pair.getDecodedIncompleteOffsets(100)).as(description).isInstanceOf(OffsetDecodingError.class);
+            assertThatThrownBy(pair::getDecodedString).as(description).isInstanceOf(OffsetDecodingError.class);
+        });
+
+        // the last gap reaching the end of the range is fine
+        var valid = new EncodedOffsetPair(DeltaVarInt, ByteBuffer.wrap(new byte[]{10, 2, 6}));
+        assertThat(valid.getDecodedIncompleteOffsets(100).getRight()).containsExactly(102, 109);
+        assertThat(valid.getDecodedString()).isEqualTo("xxoxxxxxxo");
+    }
+
+    @Test
+    void corruptEnvelopesFailToDecode() {
+        byte magic = DeltaVarInt.getMagicByte();
+        byte zstd = ZstdDictionaryCodec.ID;
+        var corrupt = UniMaps.of(
+                "negative length", new byte[]{magic, zstd, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F, 1},
+                "huge length", new byte[]{magic, zstd, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04, 1},
+                "unknown codec", new byte[]{magic, (byte) 0x7F, 10, 1, 2, 3},
+                "garbage frame", new byte[]{magic, zstd, 10, 1, 2, 3},
+                "truncated", new byte[]{magic, zstd});
+        corrupt.forEach((description, envelope) ->
+                assertThatThrownBy(() -> OffsetMapCompressionCodecs.decompress(ByteBuffer.wrap(envelope)))
+                        .as(description)
+                        .isInstanceOf(OffsetDecodingError.class));
+    }
+
+    /**
+     * More threads than the codec keeps idle contexts for, so contexts are both reused and closed
+     */
+    @SneakyThrows
+    @Test
+    void dictionaryCodecIsThreadSafe() {
+        var codec = new ZstdDictionaryCodec();
+        List<byte[]> samples = OffsetMapDictionaryTrainer.generateSamples(new Random(3), 20);
+        int threads = 4 * Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    for (int round = 0; round < 10; round++) {
+                        for (byte[] sample : samples) {
+                            byte[] compressed = new byte[codec.maxCompressedLength(sample.length)];
+                            int length = codec.compress(sample, compressed, 0);
+                            byte[] decompressed = new byte[sample.length];
+                            codec.decompress(compressed, 0, length, decompressed);
+                            assertThat(decompressed).isEqualTo(sample);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     /**
      * There's no guarantee that offsets are always sequential. The most obvious case is with a compacted topic - there
      * will always be offsets missing.
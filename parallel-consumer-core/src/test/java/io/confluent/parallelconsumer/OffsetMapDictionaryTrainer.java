@@ -0,0 +1,83 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Trains the {@link ZstdDictionaryCodec} dictionary, on the smallest encodings of synthetic offset maps - scattered
+ * incompletes, a mostly incomplete tail, bursts, and sparse stragglers, over ranges of a few hundred to sixty thousand
+ * offsets.
+ * <p>
+ * The dictionary shipped must never change, as committed offset maps depend on it - a retrained dictionary needs a
+ * new codec id. Run from the module directory:
+ * <pre>
+ * java -cp ... io.confluent.parallelconsumer.OffsetMapDictionaryTrainer src/main/resources/io/confluent/parallelconsumer/new.zstd-dict
+ * </pre>
+ */
+@Slf4j
+public class OffsetMapDictionaryTrainer {
+
+    static final int DICTIONARY_SIZE = 4 * 1024;
+
+    static final int SAMPLE_COUNT = 2_000;
+
+    private static final List<OffsetEncoding> UNCOMPRESSED_ENCODINGS = Arrays.asList(OffsetEncoding.BitSet, OffsetEncoding.BitSetV2,
+            OffsetEncoding.RunLength, OffsetEncoding.RunLengthV2, OffsetEncoding.DeltaVarInt);
+
+    public static void main(String[] args) throws IOException {
+        Path output = Paths.get(args[0]);
+        List<byte[]> samples = generateSamples(new Random(1), SAMPLE_COUNT);
+        int totalSize = samples.stream().mapToInt(sample -> sample.length).sum();
+        var trainer = new ZstdDictTrainer(totalSize, DICTIONARY_SIZE);
+        samples.forEach(trainer::addSample);
+        byte[] dictionary = trainer.trainSamples();
+        Files.write(output, dictionary);
+        log.info("Trained {} byte dictionary from {} samples ({} bytes), written to {}", dictionary.length, samples.size(), totalSize, output);
+    }
+
+    /**
+     * @return the smallest uncompressed encoding of each offset map - which is what gets compressed
+     */
+    static List<byte[]> generateSamples(Random random, int count) {
+        List<byte[]> samples = new ArrayList<>(count);
+        double[] rates = {0.001, 0.01, 0.05, 0.2, 0.5};
+        for (int i = 0; i < count; i++) {
+            int length = 200 + random.nextInt(random.nextBoolean() ? 5_000 : 60_000);
+            int shape = random.nextInt(4);
+            double rate = rates[random.nextInt(rates.length)];
+            Set<Long> incompletes = new HashSet<>();
+            incompletes.add(0L);
+            for (long offset = 1; offset < length; offset++) {
+                boolean incomplete = switch (shape) {
+                    case 0 -> random.nextDouble() < rate;
+                    case 1 -> offset > length * 0.9 ? random.nextDouble() < 0.8 : random.nextDouble() < rate / 10;
+                    case 2 -> (offset / (1 + random.nextInt(50))) % 7 == 0 && random.nextDouble() < 0.7;
+                    default -> random.nextDouble() < rate / 10;
+                };
+                if (incomplete) {
+                    incompletes.add(offset);
+                }
+            }
+            var encoder = new OffsetSimultaneousEncoder(0, (long) length, incompletes).withAllEncoders().invoke();
+            byte[] smallest = null;
+            for (OffsetEncoding encoding : UNCOMPRESSED_ENCODINGS) {
+                byte[] encoded = encoder.getEncodingMap().get(encoding);
+                if (encoded != null && (smallest == null || encoded.length < smallest.length)) {
+                    smallest = encoded;
+                }
+            }
+            samples.add(smallest);
+        }
+        return samples;
+    }
+}
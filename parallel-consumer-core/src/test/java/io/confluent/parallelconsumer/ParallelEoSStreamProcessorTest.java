@@ -4,6 +4,7 @@ package io.confluent.parallelconsumer;
  * Copyright (C) 2020 Confluent, Inc.
  */
 
+import io.confluent.csid.utils.LongPollingMockConsumer;
 import io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
@@ -11,20 +12,27 @@ import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.EnumSource;
 import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
 import pl.tlinkowski.unij.api.UniLists;
+import pl.tlinkowski.unij.api.UniMaps;
+import pl.tlinkowski.unij.api.UniSets;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.function.Function;
 
@@ -722,6 +730,47 @@ public class ParallelEoSStreamProcessorTest extends ParallelEoSStreamProcessorTe
         }
     }
 
+    @ParameterizedTest()
+    @EnumSource(CommitMode.class)
+    @SneakyThrows
+    void consumerPoolCommitsThroughAssignedConsumer(CommitMode commitMode) {
+        var pooledConsumer = spy(new LongPollingMockConsumer<String, String>(OffsetResetStrategy.EARLIEST));
+        when(pooledConsumer.groupMetadata()).thenReturn(DEFAULT_GROUP_METADATA);
+        var options = getBaseOptions(commitMode).toBuilder()
+                .additionalConsumers(of(pooledConsumer))
+                .build();
+
+        if (commitMode.equals(TRANSACTIONAL_PRODUCER)) {
+            assertThatThrownBy(() -> initAsyncConsumer(options))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("pool");
+            return;
+        }
+
+        setupParallelConsumerInstance(options);
+        primeFirstRecord();
+        sendSecondRecord(consumerSpy);
+
+        // the pool's other consumer is assigned a different partition
+        var pooledPartition = new TopicPartition(INPUT_TOPIC, 2);
+        pooledConsumer.rebalance(of(pooledPartition));
+        pooledConsumer.updateBeginningOffsets(UniMaps.of(pooledPartition, 0L));
+        pooledConsumer.addRecord(new ConsumerRecord<>(INPUT_TOPIC, 2, 0, "key-2", "v"));
+        pooledConsumer.addRecord(new ConsumerRecord<>(INPUT_TOPIC, 2, 1, "key-2", "v"));
+
+        var processed = new CountDownLatch(4);
+        parallelConsumer.poll((ignore) -> processed.countDown());
+        awaitLatch(processed);
+
+        parallelConsumer.closeDrainFirst();
+
+        // each partition is committed only by the consumer it's assigned to
+        assertThat(consumerSpy.getCommitHistoryInt()).flatExtracting(Map::keySet).doesNotContain(pooledPartition);
+        assertThat(pooledConsumer.getCommitHistoryInt()).flatExtracting(Map::keySet).containsOnly(pooledPartition);
+        assertThat(pooledConsumer.getCommitHistoryInt()).last().isEqualTo(UniMaps.of(pooledPartition, new OffsetAndMetadata(2)));
+        assertThat(consumerSpy.getCommitHistoryInt()).last().isEqualTo(UniMaps.of(new TopicPartition(INPUT_TOPIC, 0), new OffsetAndMetadata(2)));
+    }
+
     @Test
     void produceMessageFlowRequiresProducer() {
         setupClients();
@@ -781,6 +830,98 @@ public class ParallelEoSStreamProcessorTest extends ParallelEoSStreamProcessorTe
         assertThat(producerSpy.history()).hasSize(1);
     }
 
+    /**
+     * Transactional commits flush the producer, which acknowledges the sends, so not included
+     */
+    @ParameterizedTest()
+    @EnumSource(value = CommitMode.class, names = "TRANSACTIONAL_PRODUCER", mode = EnumSource.Mode.EXCLUDE)
+    void produceFlowCompletesWorkFromSendCallbacks(CommitMode commitMode) {
+        producerAutoComplete = false;
+        setupParallelConsumerInstance(commitMode);
+
+        var results = new CopyOnWriteArrayList<ParallelStreamProcessor.ConsumeProduceResult<String, String, String, String>>();
+        parallelConsumer.pollAndProduce((ignore) -> new ProducerRecord<>("Hello", "there"), results::add);
+
+        // sent, but not yet acknowledged, so the source record isn't complete
+        verify(producerSpy, timeout(defaultTimeoutMs)).send(any(), any());
+        waitForSomeLoopCycles(2);
+        assertThat(successfulWork).isEmpty();
+        assertThat(results).isEmpty();
+
+        // acknowledge the send
+        assertThat(producerSpy.completeNext()).isTrue();
+        await().untilAsserted(() -> assertThat(successfulWork).hasSize(1));
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getMeta()).isNotNull();
+
+        parallelConsumer.requestCommitAsap();
+        parallelConsumer.closeDrainFirst();
+
+        assertCommits(of(1));
+    }
+
+    @Test
+    void producerPoolCommitsEachPartitionThroughItsOwner() {
+        var secondProducer = new MockProducer<String, String>(true, null, null);
+        setupParallelConsumerInstance(ParallelConsumerOptions.<String, String>builder()
+                .commitMode(TRANSACTIONAL_PRODUCER)
+                .additionalProducers(UniLists.of(secondProducer))
+                .build());
+
+        // one record on each partition
+        consumerSpy.addRecord(ktu.makeRecord(0, "key-0", "v0"));
+        consumerSpy.addRecord(ktu.makeRecord(1, "key-1", "v1"));
+
+        parallelConsumer.pollAndProduce((record) -> new ProducerRecord<>(OUTPUT_TOPIC, record.key(), record.value()));
+
+        List<MockProducer<String, String>> producers = UniLists.of(producerSpy, secondProducer);
+        await().untilAsserted(() -> {
+            for (var producer : producers) {
+                assertThat(producer.history()).hasSize(1);
+                assertThat(producer.consumerGroupOffsetsHistory()).isNotEmpty();
+            }
+        });
+
+        // each producer only commits the partition it owns, along with the output produced from it
+        var ownedPartitions = new HashSet<TopicPartition>();
+        for (var producer : producers) {
+            var committed = new HashSet<TopicPartition>();
+            producer.consumerGroupOffsetsHistory().forEach(groups -> groups.values().forEach(offsets -> committed.addAll(offsets.keySet())));
+            assertThat(committed).hasSize(1);
+            var sourcePartition = new TopicPartition(INPUT_TOPIC, Integer.parseInt(producer.history().get(0).key().substring("key-".length())));
+            assertThat(committed).containsExactly(sourcePartition);
+            ownedPartitions.addAll(committed);
+        }
+        assertThat(ownedPartitions).hasSize(2);
+
+        parallelConsumer.closeDrainFirst();
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CommitMode.class, names = "TRANSACTIONAL_PRODUCER", mode = EnumSource.Mode.EXCLUDE)
+    void offsetsAreCommittedToOffsetStoreInsteadOfConsumer(CommitMode commitMode, @TempDir Path offsetsDir) throws Exception {
+        var store = new FileOffsetStore(offsetsDir);
+        setupParallelConsumerInstance(ParallelConsumerOptions.<String, String>builder()
+                .commitMode(commitMode)
+                .offsetStore(store)
+                .build());
+
+        consumerSpy.addRecord(ktu.makeRecord("key-0", "v0"));
+        consumerSpy.addRecord(ktu.makeRecord("key-1", "v1"));
+        consumerSpy.addRecord(ktu.makeRecord("key-2", "v2"));
+
+        parallelConsumer.poll((record) -> myRecordProcessingAction.apply(record));
+
+        var tp = new TopicPartition(INPUT_TOPIC, 0);
+        await().untilAsserted(() -> assertThat(store.load(UniSets.of(tp)).get(tp)).isEqualTo(new OffsetAndMetadata(3, "")));
+
+        parallelConsumer.closeDrainFirst();
+
+        verify(consumerSpy, never()).commitSync(anyMap());
+        verify(consumerSpy, never()).commitAsync(anyMap(), any());
+        assertThat(getCommitHistory()).isEmpty();
+    }
+
     private void requestCommitAndPause() {
         parallelConsumer.requestCommitAsap();
         waitForSomeLoopCycles(2);
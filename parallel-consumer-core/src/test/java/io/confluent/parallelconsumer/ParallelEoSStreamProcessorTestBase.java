@@ -117,9 +117,15 @@ public class ParallelEoSStreamProcessorTestBase {
         return consumerSpy;
     }
 
+    /**
+     * Set to false before setting up the instance, to acknowledge sends manually with {@link
+     * MockProducer#completeNext()}
+     */
+    protected boolean producerAutoComplete = true;
+
     protected void instantiateConsumerProducer() {
         LongPollingMockConsumer<String, String> consumer = new LongPollingMockConsumer<>(OffsetResetStrategy.EARLIEST);
-        MockProducer<String, String> producer = new MockProducer<>(true, null, null); // TODO do async testing
+        MockProducer<String, String> producer = new MockProducer<>(producerAutoComplete, null, null);
 
         this.producerSpy = spy(producer);
         this.consumerSpy = spy(consumer);
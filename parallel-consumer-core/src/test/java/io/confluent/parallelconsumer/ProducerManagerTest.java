@@ -0,0 +1,87 @@
+package io.confluent.parallelconsumer;
+
+/*-
+ * Copyright (C) 2020 Confluent, Inc.
+ */
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static io.confluent.parallelconsumer.ParallelConsumerOptions.CommitMode.TRANSACTIONAL_PRODUCER;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @see ProducerManager
+ */
+class ProducerManagerTest {
+
+    MockProducer<String, String> producer = new MockProducer<>(true, null, null);
+
+    ProducerManager<String, String> pm;
+
+    List<RecordMetadata> acknowledged = new CopyOnWriteArrayList<>();
+
+    List<Exception> failed = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setup() {
+        var options = ParallelConsumerOptions.<String, String>builder().commitMode(TRANSACTIONAL_PRODUCER).build();
+        pm = new ProducerManager<>(producer, mock(ConsumerManager.class), mock(WorkManager.class), options);
+    }
+
+    private void send(String value) {
+        pm.produceMessage(new ProducerRecord<>("output", value), (meta, exception) -> {
+            if (exception == null) {
+                acknowledged.add(meta);
+            } else {
+                failed.add(exception);
+            }
+        });
+    }
+
+    @Test
+    void sendsDuringCommitDontWaitAndGoIntoNextTransaction() throws Exception {
+        send("before");
+        assertThat(acknowledged).hasSize(1);
+
+        // commit in progress
+        pm.preAcquireWork();
+
+        // another thread sending isn't held up by the commit
+        var sender = Executors.newSingleThreadExecutor();
+        sender.submit(() -> send("during")).get(5, TimeUnit.SECONDS);
+        sender.shutdown();
+        assertThat(acknowledged).as("buffered, not sent yet").hasSize(1);
+
+        // commit finished, buffered send is made
+        pm.postCommit();
+        assertThat(acknowledged).hasSize(2);
+        assertThat(producer.transactionInFlight()).isTrue();
+
+        // back to sending directly
+        send("after");
+        assertThat(acknowledged).hasSize(3);
+        assertThat(failed).isEmpty();
+    }
+
+    @Test
+    void closeFailsBufferedSends() {
+        pm.preAcquireWork();
+        send("during");
+
+        pm.close(Duration.ofSeconds(1));
+
+        assertThat(acknowledged).isEmpty();
+        assertThat(failed).hasSize(1);
+    }
+}
@@ -116,6 +116,55 @@ class WorkManagerOffsetMapCodecManagerTest {
         assertThat(longs.toArray()).containsExactly(incomplete.toArray());
     }
 
+    @Test
+    void denseTextCycle() {
+        var random = new Random(0);
+        for (int length : range(64)) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+
+            String text = OffsetDenseText.encode(bytes);
+
+            assertThat(text).startsWith(OffsetDenseText.PREFIX)
+                    .hasSize(OffsetDenseText.PREFIX.length() + (length * 8 + 14) / 15);
+            assertThat(new String(text.getBytes(UTF_8), UTF_8)).as("survives UTF-8").isEqualTo(text);
+            assertThat(OffsetMapCodecManager.decodeOffsetMapText(text)).containsExactly(bytes);
+        }
+    }
+
+    @SneakyThrows
+    @Test
+    void denseTextFitsMoreOffsetsThanBase64() {
+        MockConsumer<String, String> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        wm = new WorkManager<>(ParallelConsumerOptions.builder()
+                .offsetMapTextEncoding(ParallelConsumerOptions.OffsetMapTextEncoding.DENSE)
+                .build(), consumer);
+        om = new OffsetMapCodecManager<>(wm, consumer);
+
+        // random incompletes, which don't compress
+        int length = 40_000;
+        var random = new Random(0);
+        var incompletes = new TreeSet<Long>();
+        for (long offset = 0; offset < length; offset++) {
+            if (random.nextBoolean()) {
+                incompletes.add(offset);
+            }
+        }
+
+        String dense = om.makeOffsetMetadataPayload(0, length, incompletes);
+        String base64 = OffsetSimpleSerialisation.base64(OffsetMapCodecManager.decodeOffsetMapText(dense));
+        log.info("Dense: {}, base64: {}", dense.length(), base64.length());
+        assertThat(base64).hasSizeGreaterThan(OffsetMapCodecManager.DefaultMaxMetadataSize);
+        assertThat(dense).hasSizeLessThanOrEqualTo(OffsetMapCodecManager.DefaultMaxMetadataSize);
+        assertThat(length).isGreaterThan(OffsetMapCodecManager.MAX_OFFSETS_ENCODABLE_IN_METADATA)
+                .isLessThanOrEqualTo(OffsetMapCodecManager.maxOffsetsEncodableInMetadata(ParallelConsumerOptions.OffsetMapTextEncoding.DENSE));
+
+        // either packing decodes, regardless of the one configured
+        long[] expected = incompletes.stream().mapToLong(Long::longValue).toArray();
+        assertThat(OffsetMapCodecManager.deserialiseIncompleteOffsetsFromBase64(0, dense).getRight()).containsExactly(expected);
+        assertThat(OffsetMapCodecManager.deserialiseIncompleteOffsetsFromBase64(0, base64).getRight()).containsExactly(expected);
+    }
+
     /**
      * Even Java _binary_ serialisation has very large overheads.
      */
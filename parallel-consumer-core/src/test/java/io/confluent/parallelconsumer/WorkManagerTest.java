@@ -7,9 +7,11 @@ package io.confluent.parallelconsumer;
 import io.confluent.csid.utils.AdvancingWallClockProvider;
 import io.confluent.csid.utils.KafkaTestUtils;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.clients.consumer.OffsetResetStrategy;
 import org.apache.kafka.common.TopicPartition;
 import org.assertj.core.api.AbstractListAssert;
@@ -21,16 +23,28 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.io.TempDir;
+import pl.tlinkowski.unij.api.UniMaps;
+import pl.tlinkowski.unij.api.UniSets;
 
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
+import static io.confluent.csid.utils.KafkaUtils.toTP;
 import static io.confluent.csid.utils.Range.range;
 import static io.confluent.parallelconsumer.ParallelConsumerOptions.ProcessingOrder.*;
 import static io.confluent.parallelconsumer.WorkContainer.getRetryDelay;
 import static java.time.Duration.ofSeconds;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static pl.tlinkowski.unij.api.UniLists.of;
 
 /**
@@ -545,6 +559,656 @@ public class WorkManagerTest {
         assertOffsets(works, of());
     }
 
+    @Test
+    public void globalRateLimit() {
+        ParallelConsumerOptions build = ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .maxRecordsPerSecond(2)
+                .build();
+        setupWorkManager(build);
+        registerSomeWork();
+
+        //
+        var works = wm.maybeGetWork();
+        assertOffsets(works, of(0, 1));
+        successAll(works);
+
+        // rate used up, remaining work stays queued
+        works = wm.maybeGetWork();
+        assertOffsets(works, of());
+        assertThat(wm.getTimeUntilRateLimitPermits()).contains(Duration.ofMillis(500));
+
+        //
+        advanceClock(Duration.ofMillis(499));
+        works = wm.maybeGetWork();
+        assertOffsets(works, of());
+
+        //
+        advanceClock(Duration.ofMillis(1));
+        works = wm.maybeGetWork();
+        assertOffsets(works, of(2));
+        assertThat(wm.getTimeUntilRateLimitPermits()).isEmpty();
+    }
+
+    @Test
+    public void perShardAndTopicRateLimits() {
+        ParallelConsumerOptions build = ParallelConsumerOptions.builder()
+                .ordering(KEY)
+                .maxRecordsPerSecondPerShard(1)
+                .maxRecordsPerSecondPerTopic(UniMaps.of(OUTPUT_TOPIC, 1))
+                .build();
+        setupWorkManager(build);
+
+        var partition = 0;
+        var a1 = new ConsumerRecord<>(INPUT_TOPIC, partition, 0, "key-a", "value");
+        var b1 = new ConsumerRecord<>(INPUT_TOPIC, partition, 1, "key-b", "value");
+        var a2 = new ConsumerRecord<>(INPUT_TOPIC, partition, 2, "key-a", "value");
+        var b2 = new ConsumerRecord<>(INPUT_TOPIC, partition, 3, "key-b", "value");
+        var c1 = new ConsumerRecord<>(OUTPUT_TOPIC, partition, 0, "key-c", "value");
+        var d1 = new ConsumerRecord<>(OUTPUT_TOPIC, partition, 1, "key-d", "value");
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> m = new HashMap<>();
+        m.put(new TopicPartition(INPUT_TOPIC, partition), of(a1, b1, a2, b2));
+        m.put(new TopicPartition(OUTPUT_TOPIC, partition), of(c1, d1));
+        wm.registerWork(new ConsumerRecords<>(m));
+
+        // one per key, and only one for the limited topic
+        var works = wm.maybeGetWork();
+        assertThat(works).hasSize(3);
+        assertThat(works).extracting(x -> x.getCr().key()).contains("key-a", "key-b").containsAnyOf("key-c", "key-d");
+        successAll(works);
+
+        // keys have work available, but are over their rate
+        works = wm.maybeGetWork();
+        assertThat(works).isEmpty();
+
+        //
+        advanceClock(ofSeconds(1));
+        works = wm.maybeGetWork();
+        assertThat(works).hasSize(3);
+        successAll(works);
+
+        assertThat(wm.getMappedShardWorkRemainingCount()).isZero();
+    }
+
+    @Test
+    public void circuitBreakerStopsDispatchAndProbesRecovery() {
+        ParallelConsumerOptions build = ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .circuitBreakerFailureRateThreshold(50)
+                .circuitBreakerWindowSize(4)
+                .circuitBreakerMinimumCalls(4)
+                .circuitBreakerOpenDuration(ofSeconds(30))
+                .circuitBreakerHalfOpenProbes(1)
+                .build();
+        setupWorkManager(build);
+        registerSomeWork();
+        registerSomeWork();
+
+        // downstream is down, everything fails
+        var works = wm.maybeGetWork(4);
+        assertThat(works).hasSize(4);
+        for (var work : works) {
+            wm.onUserFunctionResult(work, false);
+            wm.failed(work);
+        }
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(wm.shouldThrottle()).isTrue();
+
+        // nothing dispatched, even once the retry delay has passed
+        advanceClockByDelay();
+        assertThat(wm.maybeGetWork()).isEmpty();
+
+        // half open - a single probe, which fails
+        advanceClock(ofSeconds(30));
+        works = wm.maybeGetWork();
+        assertThat(works).hasSize(1);
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(wm.maybeGetWork()).isEmpty();
+        wm.onUserFunctionResult(works.get(0), false);
+        wm.failed(works.get(0));
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+        // half open again - downstream recovered
+        advanceClock(ofSeconds(30));
+        works = wm.maybeGetWork();
+        assertThat(works).hasSize(1);
+        wm.onUserFunctionResult(works.get(0), true);
+        wm.success(works.get(0));
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(wm.shouldThrottle()).isFalse();
+
+        // back to normal
+        works = wm.maybeGetWork();
+        assertThat(works).hasSize(5);
+    }
+
+    /**
+     * With fewer records available than probes, the breaker must still close once those dispatched succeed, and
+     * results of work dispatched before half opening mustn't count as probes
+     */
+    @Test
+    public void circuitBreakerClosesWithFewerRecordsThanProbes() {
+        ParallelConsumerOptions build = ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .circuitBreakerFailureRateThreshold(50)
+                .circuitBreakerWindowSize(2)
+                .circuitBreakerMinimumCalls(2)
+                .circuitBreakerOpenDuration(ofSeconds(30))
+                .circuitBreakerHalfOpenProbes(5)
+                .build();
+        setupWorkManager(build);
+        registerSomeWork();
+
+        var works = wm.maybeGetWork();
+        assertThat(works).hasSize(3);
+        var dispatchedBeforeOpening = works.get(2);
+        for (var work : works.subList(0, 2)) {
+            wm.onUserFunctionResult(work, false);
+            wm.failed(work);
+        }
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(wm.shouldThrottle()).isTrue();
+
+        // half open - only the two failed records are available to probe with, and polling resumes for more
+        advanceClock(ofSeconds(30));
+        var probes = wm.maybeGetWork();
+        assertThat(probes).hasSize(2);
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThat(wm.shouldThrottle()).isFalse();
+
+        // not a probe, so doesn't reopen
+        wm.onUserFunctionResult(dispatchedBeforeOpening, false);
+        wm.failed(dispatchedBeforeOpening);
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+
+        wm.onUserFunctionResult(probes.get(0), true);
+        wm.success(probes.get(0));
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        wm.onUserFunctionResult(probes.get(1), true);
+        wm.success(probes.get(1));
+        assertThat(wm.getCircuitBreakerState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Raw keys, such as when using {@link LazyDeserialiser}, must still be ordered by key value
+     */
+    @Test
+    public void orderedByRawByteArrayKey() {
+        var wm = new WorkManager<byte[], byte[]>(ParallelConsumerOptions.builder().ordering(KEY).build(),
+                new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+        wm.setClock(clock);
+
+        var partition = 0;
+        var rec = new ConsumerRecord<>(INPUT_TOPIC, partition, 0, "key-a".getBytes(), "value".getBytes());
+        var rec2 = new ConsumerRecord<>(INPUT_TOPIC, partition, 1, "key-a".getBytes(), "value".getBytes());
+        var rec3 = new ConsumerRecord<>(INPUT_TOPIC, partition, 2, "key-b".getBytes(), "value".getBytes());
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> m = new HashMap<>();
+        m.put(new TopicPartition(INPUT_TOPIC, partition), of(rec, rec2, rec3));
+        wm.registerWork(new ConsumerRecords<>(m));
+
+        // equal keys in separate arrays are the same shard
+        var works = wm.maybeGetWork();
+        assertThat(works).extracting(x -> x.getCr().offset()).containsExactlyInAnyOrder(0L, 2L);
+        works.forEach(wm::success);
+
+        works = wm.maybeGetWork();
+        assertThat(works).extracting(x -> x.getCr().offset()).containsExactly(1L);
+    }
+
+    /**
+     * Cooperative rebalancing - only the revoked partition's work is dropped
+     */
+    @Test
+    public void revokeKeepsWorkForRetainedPartitions() {
+        setupWorkManager(ParallelConsumerOptions.builder().ordering(KEY).build());
+
+        var revoked = new TopicPartition(INPUT_TOPIC, 0);
+        var retained = new TopicPartition(INPUT_TOPIC, 1);
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> m = new HashMap<>();
+        m.put(revoked, of(new ConsumerRecord<>(INPUT_TOPIC, 0, 0, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 1, "key-c", "value")));
+        m.put(retained, of(new ConsumerRecord<>(INPUT_TOPIC, 1, 5, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 1, 7, "key-b", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 1, 8, "key-b", "value")));
+        wm.registerWork(new ConsumerRecords<>(m));
+
+        var works = wm.maybeGetWork();
+        assertThat(works).extracting(x -> x.getCr().offset()).containsExactlyInAnyOrder(0L, 1L, 7L);
+        assertThat(wm.getInFlightCount()).isEqualTo(3);
+
+        wm.onPartitionsRevoked(of(revoked));
+
+        // in flight work from the revoked partition still completes, but is dropped
+        var inFlightFromRevoked = works.stream().filter(x -> x.getCr().partition() == 0).sorted().toArray(WorkContainer[]::new);
+        wm.success(inFlightFromRevoked[0]);
+        wm.failed(inFlightFromRevoked[1]);
+        assertThat(wm.getInFlightCount()).isEqualTo(1);
+
+        // the retained partition's work in the shared key shard is still there
+        var retainedWork = wm.maybeGetWork();
+        assertThat(retainedWork).extracting(x -> x.getCr().offset()).containsExactly(5L);
+
+        // and its in flight work carries on
+        works.stream().filter(x -> x.getCr().partition() == 1).forEach(wm::success);
+        successAll(retainedWork);
+        retainedWork = wm.maybeGetWork();
+        assertThat(retainedWork).extracting(x -> x.getCr().offset()).containsExactly(8L);
+        successAll(retainedWork);
+
+        assertThat(wm.findCompletedEligibleOffsetsAndRemove()).containsOnlyKeys(retained);
+        assertThat(wm.getInFlightCount()).isZero();
+    }
+
+    @Test
+    public void recordsHeldBackUntilOffsetMapLoaded() {
+        setupWorkManager(ParallelConsumerOptions.builder().ordering(UNORDERED).build());
+
+        var loading = new TopicPartition(INPUT_TOPIC, 0);
+        var loaded = new TopicPartition(INPUT_TOPIC, 1);
+        var load = new CompletableFuture<Optional<ParallelConsumer.Tuple<Long, long[]>>>();
+        wm.onOffsetMapLoading(loading, load);
+
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> m = new HashMap<>();
+        m.put(loading, of(new ConsumerRecord<>(INPUT_TOPIC, 0, 0, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 1, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 2, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 3, "key-a", "value")));
+        m.put(loaded, of(new ConsumerRecord<>(INPUT_TOPIC, 1, 0, "key-b", "value")));
+        wm.registerWork(new ConsumerRecords<>(m));
+
+        // only the partition which isn't loading can proceed
+        var works = wm.maybeGetWork();
+        assertThat(works).extracting(x -> toTP(x.getCr())).containsOnly(loaded);
+        assertThat(wm.getWorkRemainingCount()).isEqualTo(5);
+        successAll(works);
+        assertThat(wm.maybeGetWork()).isEmpty();
+
+        // offsets 0 and 2 were completed before the rebalance
+        load.complete(Optional.of(ParallelConsumer.Tuple.pairOf(3L, new long[]{1L})));
+
+        works = wm.maybeGetWork();
+        assertOffsets(works, of(1, 3));
+    }
+
+    /**
+     * Corrupt offset maps, whether decoded in the background (several partitions) or inline (one), are dropped - the
+     * records after the committed offset are all replayed, rather than the processor failing
+     */
+    @Test
+    public void corruptOffsetMapsAreDroppedAndRecordsReplayed() {
+        var envelope = new TopicPartition(INPUT_TOPIC, 0);
+        var deltaVarInt = new TopicPartition(INPUT_TOPIC, 1);
+        var inline = new TopicPartition(INPUT_TOPIC, 2);
+        // a compressed envelope, whose zstd frame is garbage
+        byte[] corruptEnvelope = {OffsetEncoding.CompressedEnvelope.getMagicByte(), OffsetEncoding.DeltaVarInt.getMagicByte(),
+                ZstdDictionaryCodec.ID, 10, 1, 2, 3, 4};
+        // a delta varint map, cut short in the middle of a varint
+        byte[] corruptDeltaVarInt = {OffsetEncoding.DeltaVarInt.getMagicByte(), 10, (byte) 0x80};
+        Map<TopicPartition, OffsetAndMetadata> committed = new HashMap<>();
+        committed.put(envelope, new OffsetAndMetadata(5, OffsetSimpleSerialisation.base64(corruptEnvelope)));
+        committed.put(deltaVarInt, new OffsetAndMetadata(5, OffsetSimpleSerialisation.base64(corruptDeltaVarInt)));
+        committed.put(inline, new OffsetAndMetadata(5, OffsetSimpleSerialisation.base64(corruptDeltaVarInt)));
+        Consumer<String, String> consumer = mock(Consumer.class);
+        when(consumer.committed(anySet())).thenAnswer(invocation -> {
+            Set<TopicPartition> requested = invocation.getArgument(0);
+            Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>(committed);
+            result.keySet().retainAll(requested);
+            return result;
+        });
+        wm = new WorkManager<>(ParallelConsumerOptions.builder().ordering(UNORDERED).build(), consumer);
+        wm.setClock(clock);
+
+        wm.onPartitionsAssigned(UniSets.of(envelope, deltaVarInt));
+        wm.onPartitionsAssigned(UniSets.of(inline));
+        registerRecords(envelope, 5, 3);
+        registerRecords(deltaVarInt, 5, 3);
+        registerRecords(inline, 5, 3);
+
+        var works = new ArrayList<WorkContainer<String, String>>();
+        await().untilAsserted(() -> {
+            works.addAll(wm.maybeGetWork());
+            assertThat(works).hasSize(9);
+        });
+        for (var tp : of(envelope, deltaVarInt, inline)) {
+            assertThat(works).filteredOn(x -> toTP(x.getCr()).equals(tp))
+                    .extracting(x -> x.getCr().offset())
+                    .as("all of %s replayed", tp)
+                    .containsExactly(5L, 6L, 7L);
+        }
+    }
+
+    /**
+     * Each producer of a {@link ProducerPool} commits its own partitions, concurrently with the others
+     */
+    @Test
+    public void commitProgressIsOnlyResetForThePartitionsCommitted() {
+        setupWorkManager(ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .commitAfterRecordsCompleted(3)
+                .commitAfterOffsetAdvance(2)
+                .build());
+        var tp0 = new TopicPartition(INPUT_TOPIC, 0);
+        var tp1 = new TopicPartition(INPUT_TOPIC, 1);
+        registerRecords(tp0, 0, 2);
+        registerRecords(tp1, 0, 1);
+        var works = wm.maybeGetWork();
+        assertThat(works).hasSize(3);
+        wm.onOffsetCommitSuccess(wm.findCompletedEligibleOffsetsAndRemove());
+
+        // offset advance on one partition, committing the other doesn't reset it
+        for (var work : works) {
+            if (toTP(work.getCr()).equals(tp0)) {
+                succeed(work);
+            }
+        }
+        assertThat(wm.isCommitProgressThresholdReached()).isTrue();
+        wm.findCompletedEligibleOffsetsAndRemove(tp -> tp.equals(tp1));
+        assertThat(wm.isCommitProgressThresholdReached()).isTrue();
+        wm.onOffsetCommitSuccess(wm.findCompletedEligibleOffsetsAndRemove(tp -> tp.equals(tp0)));
+        assertThat(wm.isCommitProgressThresholdReached()).isFalse();
+
+        // records completed count across partitions, and are only reset for those committed
+        registerRecords(tp0, 2, 1);
+        registerRecords(tp1, 1, 2);
+        for (var work : wm.maybeGetWork()) {
+            // tp1's offsets can't advance, as its first record is still in flight
+            succeed(work);
+        }
+        assertThat(wm.isCommitProgressThresholdReached()).as("3 records completed").isTrue();
+        wm.onOffsetCommitSuccess(wm.findCompletedEligibleOffsetsAndRemove(tp -> tp.equals(tp0)));
+        assertThat(wm.isCommitProgressThresholdReached()).as("only tp1's 2 records remain").isFalse();
+        succeed(works.stream().filter(x -> toTP(x.getCr()).equals(tp1)).findFirst().get());
+        assertThat(wm.isCommitProgressThresholdReached()).isTrue();
+    }
+
+    @Test
+    public void commitsOnlyPartitionsWithProgress() {
+        setupWorkManager(ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .commitAfterRecordsCompleted(3)
+                .commitAfterOffsetAdvance(2)
+                .build());
+
+        var tp0 = new TopicPartition(INPUT_TOPIC, 0);
+        var tp1 = new TopicPartition(INPUT_TOPIC, 1);
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> m = new HashMap<>();
+        m.put(tp0, of(new ConsumerRecord<>(INPUT_TOPIC, 0, 0, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 1, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 2, "key-a", "value")));
+        m.put(tp1, of(new ConsumerRecord<>(INPUT_TOPIC, 1, 0, "key-b", "value")));
+        wm.registerWork(new ConsumerRecords<>(m));
+        var works = wm.maybeGetWork();
+        assertThat(works).hasSize(4);
+
+        // partitions never committed need their position established
+        assertThat(wm.isClean()).isFalse();
+        var offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(offsets).containsOnlyKeys(tp0, tp1);
+        wm.onOffsetCommitSuccess(offsets);
+        assertThat(wm.isClean()).isTrue();
+
+        // progress on one partition only
+        var tp0Work = works.stream().filter(x -> toTP(x.getCr()).equals(tp0)).sorted().toArray(WorkContainer[]::new);
+        succeed(tp0Work[1]);
+        assertThat(wm.isCommitProgressThresholdReached()).isFalse();
+        succeed(tp0Work[0]);
+        assertThat(wm.isCommitProgressThresholdReached()).as("offset advanced by 2").isTrue();
+        assertThat(wm.isClean()).isFalse();
+
+        offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(offsets).containsOnlyKeys(tp0);
+        assertThat(offsets.get(tp0).offset()).isEqualTo(2);
+        wm.onOffsetCommitSuccess(offsets);
+        assertThat(wm.isClean()).isTrue();
+        assertThat(wm.isCommitProgressThresholdReached()).isFalse();
+
+        // nothing changed, nothing to commit
+        assertThat(wm.findCompletedEligibleOffsetsAndRemove()).isEmpty();
+
+        // failures aren't progress
+        var tp1Work = works.stream().filter(x -> toTP(x.getCr()).equals(tp1)).findFirst().get();
+        tp1Work.onUserFunctionFailure();
+        wm.failed(tp1Work);
+        assertThat(wm.isClean()).isTrue();
+
+        // a failed commit needs to be retried
+        succeed(tp0Work[2]);
+        offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(wm.isClean()).isTrue();
+        wm.onOffsetCommitFailure(offsets);
+        assertThat(wm.isClean()).isFalse();
+    }
+
+    @Test
+    public void asyncCommitKeepsWorkUntilAcknowledged() {
+        setupWorkManager(ParallelConsumerOptions.builder().ordering(UNORDERED).build());
+        registerSomeWork();
+        var tp = new TopicPartition(INPUT_TOPIC, 0);
+        var works = wm.maybeGetWork();
+        succeed(works.get(0));
+        succeed(works.get(1));
+
+        var offsets = wm.findCompletedEligibleOffsetsToCommit(ignore -> true);
+        assertThat(offsets.get(tp).offset()).isEqualTo(2);
+        assertThat(wm.getPartitionWorkRemainingCount()).as("nothing removed until acknowledged").isEqualTo(3);
+
+        // failed - nothing lost, committed again
+        wm.onOffsetCommitFailure(offsets);
+        assertThat(wm.findCompletedEligibleOffsetsToCommit(ignore -> true)).isEqualTo(offsets);
+
+        // acknowledged
+        wm.onOffsetCommitAcknowledged(offsets);
+        assertThat(wm.getPartitionWorkRemainingCount()).isEqualTo(1);
+        assertThat(wm.findCompletedEligibleOffsetsToCommit(ignore -> true)).isEmpty();
+    }
+
+    @Test
+    public void offsetMapsTooLargeForMetadataOverflowIntoStore(@TempDir Path overflowDir) throws Exception {
+        var consumer = new MockConsumer<String, String>(OffsetResetStrategy.EARLIEST);
+        var options = ParallelConsumerOptions.<String, String>builder()
+                .ordering(UNORDERED)
+                .maxMessagesToQueue(100_000)
+                .maxNumberMessagesBeyondBaseCommitOffset(100_000)
+                .offsetMapOverflowStore(new FileOffsetMapOverflowStore(overflowDir))
+                .build();
+        wm = new WorkManager<>(options, consumer);
+
+        // a small offset map, and one with a random pattern which is too big to fit in the metadata
+        var small = new TopicPartition(INPUT_TOPIC, 0);
+        var large = new TopicPartition(INPUT_TOPIC, 1);
+        Map<TopicPartition, List<ConsumerRecord<String, String>>> m = new HashMap<>();
+        m.put(small, of(new ConsumerRecord<>(INPUT_TOPIC, 0, 0, "key-a", "value"),
+                new ConsumerRecord<>(INPUT_TOPIC, 0, 1, "key-a", "value")));
+        var largeRecords = new ArrayList<ConsumerRecord<String, String>>();
+        for (int i = 0; i < 40_000; i++) {
+            largeRecords.add(new ConsumerRecord<>(INPUT_TOPIC, 1, i, "key-" + i, "value"));
+        }
+        m.put(large, largeRecords);
+        wm.registerWork(new ConsumerRecords<>(m));
+
+        var random = new Random(0);
+        var expectedIncompletes = new TreeSet<Long>();
+        for (var work : wm.maybeGetWork(100_000)) {
+            long offset = work.getCr().offset();
+            boolean isFirst = offset == 0;
+            if (!isFirst && (toTP(work.getCr()).equals(small) || random.nextBoolean())) {
+                succeed(work);
+            } else if (toTP(work.getCr()).equals(large)) {
+                expectedIncompletes.add(offset);
+            }
+        }
+
+        var offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(offsets.get(small).metadata()).as("small map stays inline").isNotEmpty().doesNotStartWith(OffsetMapCodecManager.OVERFLOW_REFERENCE_PREFIX);
+        assertThat(offsets.get(large).metadata()).startsWith(OffsetMapCodecManager.OVERFLOW_REFERENCE_PREFIX);
+        wm.onOffsetCommitSuccess(offsets);
+
+        // scanned again (here because a pipelined commit failed) with the map unchanged - not stored or committed again
+        wm.onOffsetCommitFailure(UniMaps.of(large, offsets.get(large)));
+        assertThat(wm.findCompletedEligibleOffsetsAndRemove()).doesNotContainKey(large);
+        assertThat(overflowDir.toFile().list()).hasSize(1);
+
+        // a new consumer loads the large offset map back from the store
+        Consumer<String, String> newConsumer = mock(Consumer.class);
+        when(newConsumer.committed(UniSets.of(large))).thenReturn(UniMaps.of(large, offsets.get(large)));
+        var newWm = new WorkManager<>(options, newConsumer);
+        new OffsetMapCodecManager<>(newWm, newConsumer).loadOffsetMapForPartition(UniSets.of(large));
+        assertThat(newWm.partitionIncompleteOffsets.get(large)).containsExactly(toSortedArray(expectedIncompletes));
+    }
+
+    @Test
+    public void overflowPayloadsOfPipelinedCommitsAreKeptUntilSuperseded(@TempDir Path overflowDir) throws Exception {
+        var store = new FileOffsetMapOverflowStore(overflowDir);
+        var tp = new TopicPartition(INPUT_TOPIC, 0);
+        var other = new TopicPartition(INPUT_TOPIC, 1);
+        String otherPartitions = store.store(other, 0, "other");
+        String first = store.store(tp, 10, "first");
+        String second = store.store(tp, 10, "second");
+        String third = store.store(tp, 20, "third");
+
+        // the second and third are still in flight when the first is acknowledged
+        store.onCommitted(tp, 10, Optional.of(first));
+        assertThat(store.load(tp, first)).contains("first");
+        assertThat(store.load(tp, second)).contains("second");
+        assertThat(store.load(tp, third)).contains("third");
+
+        store.onCommitted(tp, 10, Optional.of(second));
+        assertThat(store.load(tp, first)).isEmpty();
+        assertThat(store.load(tp, second)).contains("second");
+        assertThat(store.load(tp, third)).contains("third");
+
+        // committed directly, only payloads for lower offsets are known to be superseded
+        store.onCommitted(tp, 20, Optional.empty());
+        assertThat(store.load(tp, second)).isEmpty();
+        assertThat(store.load(tp, third)).contains("third");
+
+        assertThat(store.load(other, otherPartitions)).contains("other");
+    }
+
+    @Test
+    public void offsetMapsInOffsetStoreAreNotLimitedInSize(@TempDir Path offsetsDir) throws Exception {
+        var store = new FileOffsetStore(offsetsDir);
+        var options = ParallelConsumerOptions.<String, String>builder()
+                .ordering(UNORDERED)
+                .maxMessagesToQueue(100_000)
+                .maxNumberMessagesBeyondBaseCommitOffset(100_000)
+                .offsetStore(store)
+                .build();
+        wm = new WorkManager<>(options, new MockConsumer<>(OffsetResetStrategy.EARLIEST));
+
+        // a random pattern, which is too big to fit in the commit metadata
+        var tp = new TopicPartition(INPUT_TOPIC, 0);
+        registerRecords(tp, 0, 40_000);
+        var random = new Random(0);
+        var expectedIncompletes = new TreeSet<Long>();
+        long highestSucceeded = 0;
+        for (var work : wm.maybeGetWork(100_000)) {
+            long offset = work.getCr().offset();
+            if (offset != 0 && random.nextBoolean()) {
+                succeed(work);
+                highestSucceeded = Math.max(highestSucceeded, offset);
+            } else {
+                expectedIncompletes.add(offset);
+            }
+        }
+        // the map stops at the highest succeeded offset
+        expectedIncompletes = new TreeSet<>(expectedIncompletes.headSet(highestSucceeded));
+
+        var offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(offsets.get(tp).metadata()).hasSizeGreaterThan(OffsetMapCodecManager.DefaultMaxMetadataSize);
+        store.commit(offsets);
+
+        // a new consumer is positioned from the store, and loads the offset map from it
+        Consumer<String, String> newConsumer = mock(Consumer.class);
+        var newWm = new WorkManager<>(options, newConsumer);
+        newWm.onPartitionsAssigned(UniSets.of(tp));
+        verify(newConsumer).seek(tp, 0L);
+        verify(newConsumer, never()).committed(anySet());
+        assertThat(newWm.partitionIncompleteOffsets.get(tp)).containsExactly(toSortedArray(expectedIncompletes));
+    }
+
+    @Test
+    public void metadataBudgetIsPerPartition() {
+        setupWorkManager(ParallelConsumerOptions.builder()
+                .ordering(UNORDERED)
+                .maxMessagesToQueue(100_000)
+                .maxNumberMessagesBeyondBaseCommitOffset(100_000)
+                .build());
+
+        // one partition with too much to track, and others whose maps each fit, but together are well over the limit
+        int budget = OffsetMapCodecManager.MAX_OFFSETS_ENCODABLE_IN_METADATA;
+        var large = new TopicPartition(INPUT_TOPIC, 0);
+        var smallOne = new TopicPartition(INPUT_TOPIC, 1);
+        var smallTwo = new TopicPartition(INPUT_TOPIC, 2);
+        registerRecords(large, 0, budget + 2_000);
+        registerRecords(smallOne, 0, 20_000);
+        registerRecords(smallTwo, 0, 20_000);
+
+        var works = wm.maybeGetWork(100_000);
+        assertThat(works).hasSize(budget + 2_000 + 2 * 20_000);
+
+        var random = new Random(0);
+        for (var work : works) {
+            if (work.getCr().offset() != 0 && random.nextBoolean()) {
+                succeed(work);
+            }
+        }
+
+        // only the large map is stripped
+        var offsets = wm.findCompletedEligibleOffsetsAndRemove();
+        assertThat(offsets.get(large).metadata()).isEmpty();
+        assertThat(offsets.get(smallOne).metadata()).isNotEmpty().hasSizeLessThanOrEqualTo(OffsetMapCodecManager.DefaultMaxMetadataSize);
+        assertThat(offsets.get(smallTwo).metadata()).isNotEmpty().hasSizeLessThanOrEqualTo(OffsetMapCodecManager.DefaultMaxMetadataSize);
+        assertThat(offsets.values().stream().mapToInt(x -> x.metadata().length()).sum()).isGreaterThan(OffsetMapCodecManager.DefaultMaxMetadataSize);
+
+        // now the stripped partition is limited to what can be tracked, the others aren't
+        registerRecords(large, budget + 2_000, 100);
+        registerRecords(smallOne, 20_000, 100);
+        assertThat(wm.maybeGetWork(100_000)).extracting(x -> toTP(x.getCr())).containsOnly(smallOne).hasSize(100);
+    }
+
+    @Test
+    public void unchangedOffsetMapIsNotEncodedAgain() throws OffsetDecodingError {
+        setupWorkManager(ParallelConsumerOptions.builder().ordering(UNORDERED).build());
+        var tp = new TopicPartition(INPUT_TOPIC, 0);
+        registerRecords(tp, 0, 10);
+        var works = wm.maybeGetWork();
+
+        // offset 0 is stuck, everything else but 5 succeeds
+        for (var work : works) {
+            long offset = work.getCr().offset();
+            if (offset != 0 && offset != 5) {
+                succeed(work);
+            }
+        }
+        String first = wm.findCompletedEligibleOffsetsAndRemove(false).get(tp).metadata();
+        assertThat(first).isNotEmpty();
+
+        // progress which doesn't change the state covered by the map reuses the same encoding
+        wm.failed(works.get(5));
+        assertThat(wm.findCompletedEligibleOffsetsAndRemove(false).get(tp).metadata()).isSameAs(first);
+
+        // a change is encoded again
+        advanceClockByDelay();
+        succeed(wm.maybeGetWork().get(0));
+        String changed = wm.findCompletedEligibleOffsetsAndRemove(false).get(tp).metadata();
+        assertThat(changed).isNotEqualTo(first);
+        assertThat(OffsetMapCodecManager.deserialiseIncompleteOffsetMapFromBase64(0, changed).getRight()).containsExactly(0L);
+    }
+
+    private void registerRecords(TopicPartition tp, long fromOffset, int count) {
+        var records = new ArrayList<ConsumerRecord<String, String>>();
+        for (long offset = fromOffset; offset < fromOffset + count; offset++) {
+            records.add(new ConsumerRecord<>(tp.topic(), tp.partition(), offset, "key-" + offset, "value"));
+        }
+        wm.registerWork(new ConsumerRecords<>(UniMaps.of(tp, records)));
+    }
+
+    private void succeed(WorkContainer<String, String> work) {
+        work.onUserFunctionSuccess();
+        wm.success(work);
+    }
+
     @Test
     @Disabled
     public void unorderedPartitionsGreedy() {
@@ -634,4 +1298,8 @@ public class WorkManagerTest {
         assertThat(completedFutureOffsets).hasSize(1); // coalesces (see log)
         assertThat(wm.getPartitionWorkRemainingCount()).isEqualTo(0);
     }
+
+    private static long[] toSortedArray(Collection<Long> offsets) {
+        return offsets.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
 }
@@ -123,7 +123,8 @@ public class VertxParallelEoSStreamProcessor<K, V> extends ParallelEoSStreamProc
     public void vertxHttpWebClient(BiFunction<WebClient, ConsumerRecord<K, V>, Future<HttpResponse<Buffer>>> webClientRequestFunction,
                                    Consumer<Future<HttpResponse<Buffer>>> onSend) {
 
-        Function<ConsumerRecord<K, V>, List<Future<HttpResponse<Buffer>>>> userFuncWrapper = (record) -> {
+        Function<WorkContainer<K, V>, List<Future<HttpResponse<Buffer>>>> userFuncWrapper = (wc) -> {
+            ConsumerRecord<K, V> record = wc.getCr();
 
             Future<HttpResponse<Buffer>> send = carefullyRun(webClientRequestFunction, webClient, record);
 
@@ -131,7 +132,6 @@ public class VertxParallelEoSStreamProcessor<K, V> extends ParallelEoSStreamProc
             onSend.accept(send);
 
             // attach internal handler
-            WorkContainer<K, V> wc = wm.getWorkContainerForRecord(record);
             wc.setWorkType(VERTX_TYPE);
 
             send.onSuccess(h -> {